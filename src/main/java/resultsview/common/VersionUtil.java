@@ -23,41 +23,87 @@
  */
 package resultsview.common;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class VersionUtil {
 
-    private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+");
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int nextDigit(String s, int from) {
+        int len = s.length();
+        while (from < len && !isDigit(s.charAt(from))) {
+            ++from;
+        }
+        return from;
+    }
+
+    private static int numberEnd(String s, int from) {
+        int len = s.length();
+        while (from < len && isDigit(s.charAt(from))) {
+            ++from;
+        }
+        return from;
+    }
+
+    private static int skipZeros(String s, int from, int end) {
+        while (from < end && s.charAt(from) == '0') {
+            ++from;
+        }
+        return from;
+    }
 
+    /* same result as s1.substring(from1).compareTo(s2.substring(from2)) */
+    private static int compareRest(String s1, int from1, String s2, int from2) {
+        int len1 = s1.length() - from1;
+        int len2 = s2.length() - from2;
+        int lim = Math.min(len1, len2);
+        for (int i = 0; i < lim; ++i) {
+            char c1 = s1.charAt(from1 + i);
+            char c2 = s2.charAt(from2 + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return len1 - len2;
+    }
+
+    /**
+     * Compares strings, where sequences of digits are compared as numbers,
+     * e.g. "ab-2" &lt; "ab-10" and "ab-02" equals "ab-2".
+     *
+     * @param s1 first string
+     * @param s2 second string
+     * @return negative number, zero or positive number as s1 is less than,
+     * equal or greater than s2
+     */
     public static int versionCompare(String s1, String s2) {
         if (s1.equals(s2)) {
             return 0;
         }
         int curIndex1 = 0;
         int curIndex2 = 0;
-        Matcher m1 = NUMBER_PATTERN.matcher(s1);
-        Matcher m2 = NUMBER_PATTERN.matcher(s2);
         for (;;) {
-            boolean found1 = m1.find();
-            boolean found2 = m2.find();
             /* index of next digit (from current index) */
-            int digitIndex1 = found1 ? m1.start() : s1.length();
-            int digitIndex2 = found2 ? m2.start() : s2.length();
+            int digitIndex1 = nextDigit(s1, curIndex1);
+            int digitIndex2 = nextDigit(s2, curIndex2);
             int digitDistance1 = digitIndex1 - curIndex1;
             int digitDistance2 = digitIndex2 - curIndex2;
             if (digitDistance1 != digitDistance2) {
                 /* distance to next digit is different for s1 and s2
                    => normal compare is used */
-                return s1.substring(curIndex1).compareTo(s2.substring(curIndex2));
+                return compareRest(s1, curIndex1, s2, curIndex2);
             }
             /* compare substrings before next digit */
-            int cmp = s1.substring(curIndex1, curIndex1 + digitDistance1)
-                    .compareTo(s2.substring(curIndex2, curIndex2 + digitDistance2));
-            if (cmp != 0) {
-                return cmp;
+            for (int i = 0; i < digitDistance1; ++i) {
+                char c1 = s1.charAt(curIndex1 + i);
+                char c2 = s2.charAt(curIndex2 + i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
             }
             // substrings are equal
+            boolean found1 = digitIndex1 < s1.length();
+            boolean found2 = digitIndex2 < s2.length();
             if (!found1) {
                 if (!found2) {
                     /* reached end of both strings => whole strings are equal */
@@ -70,17 +116,19 @@ public class VersionUtil {
                 /* reached end of s2 => s2 is substring of s1 */
                 return 1;
             }
-            int end1 = m1.end();
-            int end2 = m2.end();
-            int numLength1 = end1 - digitIndex1;
-            int numLength2 = end2 - digitIndex2;
-            int biggerNumLength = Math.max(numLength1, numLength2);
-            int missingDigits1 = biggerNumLength - numLength1;
-            int missingDigits2 = biggerNumLength - numLength2;
-            for (int i = 0; i < biggerNumLength; ++i) {
-                /* treat missing digits from left as zeros */
-                char digit1 = i >= missingDigits1 ? s1.charAt(digitIndex1 + i - missingDigits1) : '0';
-                char digit2 = i >= missingDigits2 ? s2.charAt(digitIndex2 + i - missingDigits2) : '0';
+            int end1 = numberEnd(s1, digitIndex1);
+            int end2 = numberEnd(s2, digitIndex2);
+            /* leading zeros do not matter */
+            int start1 = skipZeros(s1, digitIndex1, end1);
+            int start2 = skipZeros(s2, digitIndex2, end2);
+            int numLength1 = end1 - start1;
+            int numLength2 = end2 - start2;
+            if (numLength1 != numLength2) {
+                return numLength1 > numLength2 ? 1 : -1;
+            }
+            for (int i = 0; i < numLength1; ++i) {
+                char digit1 = s1.charAt(start1 + i);
+                char digit2 = s2.charAt(start2 + i);
                 if (digit2 != digit1) {
                     return digit1 > digit2 ? 1 : -1;
                 }
@@ -90,4 +138,57 @@ public class VersionUtil {
         }
     }
 
+    /**
+     * Creates key, for which String.compareTo gives same ordering as
+     * {@link #versionCompare(String, String)}, so that it can be computed
+     * once and reused for sorting. Every sequence of digits is replaced
+     * by '0', number of digits without leading zeros (as char) and
+     * the digits.
+     *
+     * @param s string
+     * @return sort key
+     */
+    public static String versionSortKey(String s) {
+        int len = s.length();
+        StringBuilder sb = new StringBuilder(len + 8);
+        int i = 0;
+        while (i < len) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                sb.append(c);
+                ++i;
+                continue;
+            }
+            int end = numberEnd(s, i);
+            int start = skipZeros(s, i, end);
+            sb.append('0');
+            sb.append((char) (end - start));
+            sb.append(s, start, end);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses string consisting only of digits, such as build number.
+     *
+     * @param s string
+     * @return number or -1 if string is not a number or is too long
+     */
+    public static long parseNumber(String s) {
+        int len = s.length();
+        if (len == 0 || len > 18) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
 }
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.poll;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import resultsview.storage.Job;
+import resultsview.storage.Storage;
+import resultsview.storage.StorageFile;
+import resultsview.xml.SAXParserPool;
+
+/**
+ * Command line tool, which scans jenkins jobs directory and writes storage
+ * file, which can be loaded by servlet on startup (see storage.file
+ * property). Usage:
+ * <pre>
+ * java -cp WEB-INF/classes resultsview.poll.Indexer [-p pattern] [-t threads] jobsDir storageFile
+ * </pre>
+ */
+public class Indexer {
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: Indexer [-p pattern] [-t threads] jobsDir storageFile");
+        out.println("  -p pattern  index only jobs matching regular expression");
+        out.println("  -t threads  number of threads (default: 4 * number of cpus)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String pattern = null;
+        int threads = 4 * Runtime.getRuntime().availableProcessors();
+        Path jobsDir = null;
+        Path storageFile = null;
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if ((arg.equals("-p") || arg.equals("-t")) && i + 1 < args.length) {
+                String value = args[++i];
+                if (arg.equals("-p")) {
+                    pattern = value;
+                } else {
+                    try {
+                        threads = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        usage(System.err);
+                        System.exit(1);
+                    }
+                }
+            } else if (arg.equals("-h") || arg.equals("--help")) {
+                usage(System.out);
+                return;
+            } else if (jobsDir == null) {
+                jobsDir = Paths.get(arg);
+            } else if (storageFile == null) {
+                storageFile = Paths.get(arg);
+            } else {
+                usage(System.err);
+                System.exit(1);
+            }
+        }
+        if (storageFile == null) {
+            usage(System.err);
+            System.exit(1);
+        }
+
+        Storage storage = new Storage();
+        JenkinsPoller poller = new JenkinsPoller(jobsDir, storage);
+        if (pattern != null) {
+            poller.jobPattern = Pattern.compile(pattern);
+        }
+        poller.setPollThreads(threads);
+        long startBytes = SAXParserPool.getBytesRead();
+        long start = System.nanoTime();
+        try {
+            poller.poll();
+        } finally {
+            poller.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+        StorageFile.save(storage, storageFile);
+
+        int jobs = 0;
+        long builds = 0;
+        for (Job job : storage.getJobs()) {
+            ++jobs;
+            builds += storage.getJobRuns(job).size();
+        }
+        double seconds = Math.max(elapsed, 1) / 1e9;
+        double megabytes = (SAXParserPool.getBytesRead() - startBytes) / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.ROOT,
+                "Indexed %d jobs, %d builds, %d pkgs in %.2f s (%d threads)",
+                jobs, builds, storage.getPkgs().size(), seconds, threads));
+        System.out.println(String.format(Locale.ROOT,
+                "%.1f jobs/s, %.1f builds/s, %.2f MB of xml parsed (%.2f MB/s)",
+                jobs / seconds, builds / seconds, megabytes, megabytes / seconds));
+        System.out.println("Storage written to: " + storageFile);
+    }
+
+}
@@ -27,17 +27,29 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import resultsview.common.VersionUtil;
 import resultsview.storage.Job;
 import resultsview.storage.Run;
@@ -50,17 +62,109 @@ public class JenkinsPoller {
     Path jobsRoot;
     StorageInterface storage;
     public Pattern jobPattern = null;
+    /* find new builds using nextBuildNumber instead of listing builds dir */
+    public boolean useBuildCursor = false;
+    /* number of newest builds read, when job is scanned for the first time,
+       older builds are read later by backfill, 0 = read all at once */
+    public int initialBuilds = 0;
+    /* maximal interval between checks of idle job in ms, jobs are then
+       checked according to their activity, 0 = check all jobs every poll */
+    public long maxCheckInterval = 0;
+    /* interval after which idle job is checked first time */
+    public long minCheckInterval = DEFAULT_MIN_CHECK_INTERVAL;
+    /* maximal interval between checks of unfinished run in ms, runs are then
+       checked when expected to finish, 0 = check all runs every poll */
+    public long maxRecheckInterval = 0;
+    /* first interval of backoff, when run takes longer than expected */
+    public long minRecheckInterval = DEFAULT_MIN_CHECK_INTERVAL;
 
-    Map<String, String> runNameMap = new HashMap<>();
+    Map<String, String> runNameMap = new ConcurrentHashMap<>();
+
+    /* used to scan jobs in parallel, null = poll sequentially */
+    ExecutorService executor = null;
+    /* change events, null = only periodic full poll */
+    JobsWatcher watcher = null;
+
+    /* older builds of jobs waiting for backfill, newest first */
+    Map<Job, Deque<String>> backfillBuilds = new ConcurrentHashMap<>();
+    /* jobs scanned since start, storage loaded after restart may miss
+       older builds, which were not backfilled yet, so builds dir of job
+       is listed once to find them */
+    Set<Job> backfillChecked = Collections.newSetFromMap(new ConcurrentHashMap<Job, Boolean>());
+    /* jobs listed by first scan, which may have builds to backfill */
+    Set<Job> backfillResumed = Collections.newSetFromMap(new ConcurrentHashMap<Job, Boolean>());
+    private long lastPublish = System.nanoTime();
+
+    /* jobs ordered by time of next check, used if maxCheckInterval > 0 */
+    PriorityQueue<ScheduledJob> checkQueue = new PriorityQueue<>();
+    Map<Job, ScheduledJob> scheduledJobs = new HashMap<>();
+    /* unfinished runs ordered by time of next check, used if
+       maxRecheckInterval > 0, queue may contain stale entries, which
+       are not in scheduledRuns */
+    PriorityQueue<ScheduledRun> recheckQueue = new PriorityQueue<>();
+    Map<Run, ScheduledRun> scheduledRuns = new HashMap<>();
+    /* smoothed duration of finished runs of job */
+    Map<Job, Long> jobDurations = new HashMap<>();
+    private long lastSkippedStats = 0;
+    private long skippedStats = 0;
+
+    /* numbers of builds found by last listing of builds dir of job */
+    Map<Job, BitSet> listedBuilds = new ConcurrentHashMap<>();
+    /* number of build dirs of job, whose builds dir was probed instead
+       of listed, -1 if unknown */
+    Map<Job, Integer> probedBuildDirs = new ConcurrentHashMap<>();
+    /* numbers of builds of job in storage */
+    Map<Job, BitSet> knownBuilds = new HashMap<>();
+    private long prunedRuns = 0;
+
+    /* progress counters */
+    private final AtomicInteger jobsScanned = new AtomicInteger();
+    private final AtomicLong buildsIngested = new AtomicLong();
+    private final AtomicLong buildsRemaining = new AtomicLong();
 
     public long rootModifTime = Long.MIN_VALUE;
     private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+");
+    /* if more builds are missing, builds dir is listed instead of probed */
+    private static final long MAX_PROBED_BUILDS = 256;
+    /* how often partial results of poll are published in progressive mode */
+    private static final long PUBLISH_INTERVAL = 1_000_000_000L;
+    public static final long DEFAULT_MIN_CHECK_INTERVAL = 30_000;
+    /* checking job for new builds costs exists and getLastModifiedTime */
+    private static final int STATS_PER_CHECK = 2;
 
     public JenkinsPoller(Path jobsRoot, StorageInterface storage) {
         this.jobsRoot = jobsRoot;
         this.storage = storage;
     }
 
+    /**
+     * Sets number of threads used to scan jobs and parse build.xml files.
+     * Results are always stored to storage by thread calling poll.
+     *
+     * @param threads number of threads, 1 or less means sequential polling
+     */
+    public synchronized void setPollThreads(int threads) {
+        shutdown();
+        if (threads > 1) {
+            final AtomicInteger threadCounter = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jenkins-poller-" + threadCounter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
     public List<Path> listDirVerSorted(Path dir) throws IOException {
         List<Path> list = new ArrayList<>();
         try (DirectoryStream<Path> buildDirs = Files.newDirectoryStream(dir)) {
@@ -89,12 +193,208 @@ public class JenkinsPoller {
         return null;
     }
 
-    public void poll() throws Exception {
-        pollRunning();
-        pollNewJobs();
+    public synchronized void poll() throws Exception {
+        lastSkippedStats = 0;
+        storage.beginUpdate();
+        try {
+            pollRunning();
+            pollNewJobs();
+        } finally {
+            storage.endUpdate();
+        }
+        updateWatches();
+    }
+
+    /**
+     * Starts watching jobs directory for changes, see {@link #pollChanges()}.
+     *
+     * @throws IOException if watch service cannot be created
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watcher == null) {
+            watcher = new JobsWatcher(jobsRoot);
+            updateWatches();
+        }
+    }
+
+    /**
+     * Polls only jobs and runs, for which change events were received since
+     * last call. Falls back to full poll if events were lost or watching
+     * is not started.
+     *
+     * @throws Exception on error
+     */
+    public synchronized void pollChanges() throws Exception {
+        if (watcher == null) {
+            poll();
+            return;
+        }
+        JobsWatcher.Changes changes = watcher.takeChanges();
+        if (changes.isRescan()) {
+            rootModifTime = Long.MIN_VALUE;
+            poll();
+            return;
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        storage.beginUpdate();
+        try {
+            pollChanges(changes);
+        } finally {
+            storage.endUpdate();
+        }
+        updateWatches();
+    }
+
+    void pollChanges(JobsWatcher.Changes changes) throws Exception {
+        /* watcher may hold copies of runs from storage snapshot,
+           poller has to change the stored ones */
+        Map<Run, Run> unfinishedRuns = new HashMap<>();
+        for (Run run : storage.getUnfinishedRuns()) {
+            unfinishedRuns.put(run, run);
+        }
+        List<Run> runs = new ArrayList<>();
+        for (Run run : changes.getRuns()) {
+            Run storedRun = unfinishedRuns.get(run);
+            if (storedRun != null) {
+                runs.add(storedRun);
+            }
+        }
+        pollRuns(runs);
+        if (changes.isRootChanged()) {
+            updateJobs();
+        }
+        List<Job> jobs = new ArrayList<>();
+        for (Job job : changes.getJobs()) {
+            if (getJob(job.getName()) != null) {
+                /* builds dir mtime may not change, when builds are created
+                   in quick succession, event is enough */
+                job.modifTime = Long.MIN_VALUE;
+                jobs.add(job);
+            }
+        }
+        pollJobs(jobs);
+    }
+
+    public synchronized void stopWatching() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    void updateWatches() {
+        if (watcher == null) {
+            return;
+        }
+        watcher.watchRoot();
+        Set<Job> jobs = new HashSet<>();
+        for (Job job : getJobs()) {
+            watcher.watchJob(job);
+            jobs.add(job);
+        }
+        Set<Run> runs = new HashSet<>();
+        for (Run run : storage.getUnfinishedRuns()) {
+            watcher.watchRun(run);
+            runs.add(run);
+        }
+        watcher.retain(jobs, runs);
     }
 
     void pollNewJobs() throws Exception {
+        updateJobs();
+        if (maxCheckInterval > 0) {
+            pollScheduledJobs();
+        } else {
+            pollJobs(getJobs());
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /*
+     * Polls only jobs, whose next check time has come. Job with new or
+     * running build is checked again in next poll, interval of idle job
+     * doubles up to maxCheckInterval.
+     */
+    void pollScheduledJobs() throws Exception {
+        long now = currentTimeMillis();
+        for (Job job : getJobs()) {
+            ScheduledJob known = scheduledJobs.get(job);
+            if (known == null || known.job != job) {
+                ScheduledJob scheduled = new ScheduledJob(job, now);
+                scheduledJobs.put(job, scheduled);
+                checkQueue.add(scheduled);
+            }
+        }
+        List<ScheduledJob> dueJobs = new ArrayList<>();
+        List<Job> jobs = new ArrayList<>();
+        List<Run> latestRuns = new ArrayList<>();
+        while (!checkQueue.isEmpty() && checkQueue.peek().nextCheck <= now) {
+            ScheduledJob scheduled = checkQueue.poll();
+            Job job = getJob(scheduled.job.getName());
+            if (job != scheduled.job) {
+                /* job was removed (or replaced) */
+                if (scheduledJobs.get(scheduled.job) == scheduled) {
+                    scheduledJobs.remove(scheduled.job);
+                }
+                continue;
+            }
+            dueJobs.add(scheduled);
+            jobs.add(job);
+            latestRuns.add(storage.getJobLatestRun(job));
+        }
+        addSkippedStats(checkQueue.size());
+        try {
+            pollJobs(jobs);
+        } finally {
+            Set<Job> runningJobs = new HashSet<>();
+            for (Run run : storage.getUnfinishedRuns()) {
+                runningJobs.add(run.getJob());
+            }
+            for (int i = 0; i < dueJobs.size(); ++i) {
+                ScheduledJob scheduled = dueJobs.get(i);
+                Job job = scheduled.job;
+                Run latestRun = storage.getJobLatestRun(job);
+                boolean active = runningJobs.contains(job)
+                        || latestRun != latestRuns.get(i);
+                if (active) {
+                    scheduled.interval = 0;
+                } else if (scheduled.interval == 0) {
+                    scheduled.interval = Math.min(minCheckInterval, maxCheckInterval);
+                } else {
+                    scheduled.interval = Math.min(scheduled.interval * 2, maxCheckInterval);
+                }
+                scheduled.nextCheck = now + scheduled.interval;
+                checkQueue.add(scheduled);
+            }
+        }
+    }
+
+    private void addSkippedStats(int skippedChecks) {
+        long stats = (long) skippedChecks * STATS_PER_CHECK;
+        lastSkippedStats += stats;
+        skippedStats += stats;
+    }
+
+    /**
+     * Returns number of file system stat calls saved by last poll, because
+     * idle jobs or unfinished runs were not checked.
+     *
+     * @return number of stat calls
+     */
+    public long getLastSkippedStats() {
+        return lastSkippedStats;
+    }
+
+    public long getSkippedStats() {
+        return skippedStats;
+    }
+
+    void updateJobs() throws IOException {
         long modifTime = Files.getLastModifiedTime(jobsRoot).toMillis();
         if (modifTime > rootModifTime) {
             rootModifTime = modifTime;
@@ -124,66 +424,461 @@ public class JenkinsPoller {
         } else {
             // System.out.println("Skipped poll: modifTime: " + modifTime + " rootModifTime: " + rootModifTime);
         }
-        for (Job job : getJobs()) {
-            pollNewRuns(job);
+    }
+
+    void pollJobs(Iterable<Job> jobsToPoll) throws Exception {
+        if (executor == null) {
+            for (Job job : jobsToPoll) {
+                pollNewRuns(job);
+                publishProgress();
+            }
+            return;
+        }
+        final List<Job> jobs = new ArrayList<>();
+        List<Callable<List<RunUpdate>>> tasks = new ArrayList<>();
+        for (final Job job : jobsToPoll) {
+            final Run latestKnownRun = storage.getJobLatestRun(job);
+            jobs.add(job);
+            tasks.add(new Callable<List<RunUpdate>>() {
+                @Override
+                public List<RunUpdate> call() throws Exception {
+                    return scanNewRuns(job, latestKnownRun);
+                }
+            });
+        }
+        runParallel(tasks, new ResultHandler<List<RunUpdate>>() {
+            @Override
+            public void handle(int index, List<RunUpdate> updates) throws Exception {
+                Job job = jobs.get(index);
+                resumeBackfill(job);
+                pruneRemovedRuns(job, updates);
+                storeNewRuns(job, updates);
+                publishProgress();
+            }
+        });
+    }
+
+    /*
+     * Runs tasks by executor and handles their results in order of tasks
+     * in calling thread. Failed task does not stop handling results of other
+     * tasks, first failure is thrown at the end.
+     */
+    private <T> void runParallel(List<Callable<T>> tasks, ResultHandler<T> handler) throws Exception {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        Exception failure = null;
+        for (int i = 0; i < futures.size(); ++i) {
+            T result;
+            try {
+                result = futures.get(i).get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = unwrap(e);
+                }
+                continue;
+            }
+            handler.handle(i, result);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /* Lets readers see partial results of long poll in progressive mode,
+       storage publishes changes at the end of update (see SnapshotStorage) */
+    private void publishProgress() {
+        if (initialBuilds <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastPublish > PUBLISH_INTERVAL) {
+            storage.endUpdate();
+            storage.beginUpdate();
+            lastPublish = now;
         }
     }
 
     void pollNewRuns(Job job) throws IOException {
+        List<RunUpdate> updates = scanNewRuns(job, storage.getJobLatestRun(job));
+        resumeBackfill(job);
+        pruneRemovedRuns(job, updates);
+        storeNewRuns(job, updates);
+    }
+
+    /*
+     * Removes runs, whose builds were not found by last listing of builds
+     * dir (e.g. deleted by log rotation). Builds dir is listed only when
+     * its mtime changes, which deletion of build does.
+     */
+    void pruneRemovedRuns(Job job, List<RunUpdate> updates) {
+        BitSet present = listedBuilds.remove(job);
+        Integer buildDirs = probedBuildDirs.remove(job);
+        if (present == null && buildDirs != null) {
+            /* new builds were probed, builds dir is listed only if number
+               of build dirs shows, that some builds were deleted too */
+            if (buildDirs == getKnownBuilds(job).cardinality() + updates.size()) {
+                return;
+            }
+            try {
+                present = listBuildNumbers(jobsRoot.resolve(job.getName()).resolve("builds"));
+            } catch (IOException e) {
+                /* tried again after next change of builds dir */
+                return;
+            }
+        }
+        if (present == null) {
+            return;
+        }
+        BitSet known = getKnownBuilds(job);
+        BitSet removed = (BitSet) known.clone();
+        removed.andNot(present);
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (Run run : storage.getJobRuns(job)) {
+            long number = run.getNumber();
+            if (number >= 0 && number <= Integer.MAX_VALUE && removed.get((int) number)) {
+                storage.removeRun(run);
+                scheduledRuns.remove(run);
+                known.clear((int) number);
+                ++prunedRuns;
+            }
+        }
+    }
+
+    /* queues listed builds older than latest run, which are missing
+       in storage, they were not backfilled before restart */
+    void resumeBackfill(Job job) {
+        if (!backfillResumed.remove(job)) {
+            return;
+        }
+        BitSet present = listedBuilds.get(job);
+        Run latestRun = storage.getJobLatestRun(job);
+        if (present == null || latestRun == null) {
+            return;
+        }
+        long latestNumber = latestRun.getNumber();
+        if (latestNumber < 0 || latestNumber > Integer.MAX_VALUE) {
+            return;
+        }
+        BitSet missing = present.get(0, (int) latestNumber);
+        missing.andNot(getKnownBuilds(job));
+        if (missing.isEmpty()) {
+            return;
+        }
+        Deque<String> olderBuilds = new ArrayDeque<>(missing.cardinality());
+        for (int i = missing.length() - 1; i >= 0; i = missing.previousSetBit(i - 1)) {
+            olderBuilds.add(Integer.toString(i));
+        }
+        backfillBuilds.put(job, olderBuilds);
+        buildsRemaining.addAndGet(olderBuilds.size());
+    }
+
+    private BitSet getKnownBuilds(Job job) {
+        BitSet known = knownBuilds.get(job);
+        if (known == null) {
+            known = new BitSet();
+            for (Run run : storage.getJobRuns(job)) {
+                setBuildNumber(known, run.getNumber());
+            }
+            knownBuilds.put(job, known);
+        }
+        return known;
+    }
+
+    private static BitSet listBuildNumbers(Path buildsDir) throws IOException {
+        BitSet present = new BitSet();
+        try (DirectoryStream<Path> buildDirs = Files.newDirectoryStream(buildsDir)) {
+            for (Path buildDir : buildDirs) {
+                String buildId = buildDir.getFileName().toString();
+                if (NUMBER_PATTERN.matcher(buildId).matches()) {
+                    setBuildNumber(present, VersionUtil.parseNumber(buildId));
+                }
+            }
+        }
+        return present;
+    }
+
+    /* returns number of subdirectories from link count of dir (without
+       listing it), -1 if file system does not provide it */
+    private static int countSubdirs(Path dir) {
+        try {
+            Object links = Files.getAttribute(dir, "unix:nlink");
+            if (links instanceof Integer && (Integer) links >= 2) {
+                return (Integer) links - 2;
+            }
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            /* unknown */
+        }
+        return -1;
+    }
+
+    private static void setBuildNumber(BitSet builds, long number) {
+        if (number >= 0 && number <= Integer.MAX_VALUE) {
+            builds.set((int) number);
+        }
+    }
+
+    /**
+     * Returns number of runs removed, because their builds were deleted.
+     *
+     * @return number of runs
+     */
+    public long getPrunedRuns() {
+        return prunedRuns;
+    }
+
+    /* Does not modify storage, so it may be called from worker threads */
+    List<RunUpdate> scanNewRuns(Job job, Run latestKnownRun) throws IOException {
+        List<RunUpdate> updates = new ArrayList<>();
         Path jobDir = jobsRoot.resolve(job.getName());
         Path buildsDir = jobDir.resolve("builds");
         if (!Files.exists(buildsDir)) {
-            return;
+            /* all builds were deleted */
+            listedBuilds.put(job, new BitSet());
+            return updates;
         }
-        Run latestKnownRun = storage.getJobLatestRun(job);
-        //Path nextBuildFile = jobDir.resolve("nextBuildNumber");
         long modifTime = Files.getLastModifiedTime(buildsDir).toMillis();
-        if (modifTime > job.modifTime || latestKnownRun == null) {
-            job.modifTime = modifTime;
-            String latestKnownRunName
-                    = latestKnownRun == null ? null : latestKnownRun.getName();
-            /*
-            String nextBuildName = readNextBuildNumber(nextBuildFile);
-            if (nextBuildName != null) {
-                String prevBuildName = Long.toString(Long.parseLong(nextBuildName) - 1);
-                if (prevBuildName.equals(latestKnownRunName)) {
-                    return;
+        boolean cursorValid = useBuildCursor && job.lastBuildNumber >= 0;
+        boolean resume = initialBuilds > 0 && backfillChecked.add(job) && latestKnownRun != null;
+        if (modifTime > job.modifTime || (latestKnownRun == null && !cursorValid) || resume) {
+            job.modifTime = Math.max(job.modifTime, modifTime);
+            if (cursorValid && !resume) {
+                List<RunUpdate> probed = probeNewRuns(job, jobDir, buildsDir);
+                if (probed != null) {
+                    probedBuildDirs.put(job, countSubdirs(buildsDir));
+                    return probed;
                 }
             }
-             */
-
+            String latestKnownRunName
+                    = latestKnownRun == null ? null : latestKnownRun.getName();
+            long lastBuildNumber = 0;
+            List<String> newBuilds = new ArrayList<>();
+            BitSet present = new BitSet();
             for (Path buildDir : listDirVerSorted(buildsDir)) {
                 String buildId = buildDir.getFileName().toString();
                 if (NUMBER_PATTERN.matcher(buildId).matches()) {
+                    setBuildNumber(present, VersionUtil.parseNumber(buildId));
                     if (latestKnownRunName == null || VersionUtil.versionCompare(latestKnownRunName, buildId) < 0) {
                         if (Files.isDirectory(buildDir)) {
-                            runNameMap.putIfAbsent(buildId, buildId);
-                            buildId = runNameMap.get(buildId);
-                            Run run = new Run(job, buildId);
-                            processRun(run);
-                            storage.storeRun(run);
-                            storage.setJobLatestRun(job, run);
-                            int status = run.getStatus();
-                            if (status == Run.RUNNING) {
-                                storage.addUnfinishedRun(run);
-                            }
+                            newBuilds.add(buildId);
                         }
                     }
+                    lastBuildNumber = parseBuildNumber(buildId, lastBuildNumber);
                 }
             }
+            int first = 0;
+            if (initialBuilds > 0 && latestKnownRun == null && newBuilds.size() > initialBuilds) {
+                first = newBuilds.size() - initialBuilds;
+                Deque<String> olderBuilds = new ArrayDeque<>(first);
+                for (int i = first - 1; i >= 0; --i) {
+                    olderBuilds.add(newBuilds.get(i));
+                }
+                backfillBuilds.put(job, olderBuilds);
+                buildsRemaining.addAndGet(first);
+            }
+            for (int i = first; i < newBuilds.size(); ++i) {
+                updates.add(readNewRun(job, newBuilds.get(i)));
+            }
+            if (job.lastBuildNumber < 0) {
+                jobsScanned.incrementAndGet();
+            }
+            job.lastBuildNumber = lastBuildNumber;
+            listedBuilds.put(job, present);
+            if (resume) {
+                backfillResumed.add(job);
+            }
+        }
+        return updates;
+    }
+
+    /*
+     * Checks only builds numbered between last seen build and nextBuildNumber,
+     * so builds dir does not need to be listed. Returns null if
+     * nextBuildNumber is not usable or builds dir needs to be listed.
+     */
+    List<RunUpdate> probeNewRuns(Job job, Path jobDir, Path buildsDir) throws IOException {
+        long nextBuildNumber;
+        try {
+            String nextBuildName = readNextBuildNumber(jobDir.resolve("nextBuildNumber"));
+            if (nextBuildName == null) {
+                return null;
+            }
+            nextBuildNumber = Long.parseLong(nextBuildName);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        long firstBuildNumber = job.lastBuildNumber + 1;
+        if (nextBuildNumber - firstBuildNumber > MAX_PROBED_BUILDS) {
+            return null;
+        }
+        if (firstBuildNumber >= nextBuildNumber) {
+            /* builds dir changed, but no build was started, so some
+               builds were probably deleted, list it */
+            return null;
+        }
+        List<RunUpdate> updates = new ArrayList<>();
+        for (long i = firstBuildNumber; i < nextBuildNumber; ++i) {
+            String buildId = Long.toString(i);
+            if (Files.isDirectory(buildsDir.resolve(buildId))) {
+                updates.add(readNewRun(job, buildId));
+                /* builds missing after last found one are probed again
+                   next time, they may not be created yet */
+                job.lastBuildNumber = i;
+            }
+        }
+        return updates;
+    }
 
+    private static long parseBuildNumber(String buildId, long max) {
+        try {
+            return Math.max(max, Long.parseLong(buildId));
+        } catch (NumberFormatException e) {
+            return max;
         }
     }
 
+    RunUpdate readNewRun(Job job, String buildId) throws IOException {
+        runNameMap.putIfAbsent(buildId, buildId);
+        buildId = runNameMap.get(buildId);
+        Run run = new Run(job, buildId);
+        RunUpdate update = readRun(run);
+        if (update == null) {
+            update = new RunUpdate(run, run.modifTime, run.getStatus(), null, -1, -1);
+        }
+        return update;
+    }
+
+    void storeNewRuns(Job job, List<RunUpdate> updates) {
+        for (RunUpdate update : updates) {
+            Run run = update.run;
+            applyRunUpdate(update);
+            storage.storeRun(run);
+            setBuildNumber(getKnownBuilds(job), run.getNumber());
+            /* backfilled runs are older than latest one */
+            Run latestRun = storage.getJobLatestRun(job);
+            if (latestRun == null || latestRun.compareTo(run) < 0) {
+                storage.setJobLatestRun(job, run);
+            }
+            int status = run.getStatus();
+            if (status == Run.RUNNING) {
+                storage.addUnfinishedRun(run);
+            }
+        }
+        buildsIngested.addAndGet(updates.size());
+    }
+
+    /**
+     * Reads older builds, which were skipped when jobs were scanned for
+     * the first time (see {@link #initialBuilds}). Newest builds are read
+     * first.
+     *
+     * @param maxBuilds maximal number of builds read by this call
+     * @return true if there are more builds to read
+     * @throws Exception on error
+     */
+    public synchronized boolean backfill(int maxBuilds) throws Exception {
+        if (backfillBuilds.isEmpty()) {
+            return false;
+        }
+        final List<Job> jobs = new ArrayList<>();
+        final List<String> buildIds = new ArrayList<>();
+        Iterator<Map.Entry<Job, Deque<String>>> it = backfillBuilds.entrySet().iterator();
+        while (it.hasNext() && buildIds.size() < maxBuilds) {
+            Map.Entry<Job, Deque<String>> entry = it.next();
+            Deque<String> olderBuilds = entry.getValue();
+            Job job = getJob(entry.getKey().getName());
+            if (job == null) {
+                /* job was removed */
+                buildsRemaining.addAndGet(-olderBuilds.size());
+                it.remove();
+                continue;
+            }
+            while (buildIds.size() < maxBuilds && !olderBuilds.isEmpty()) {
+                jobs.add(job);
+                buildIds.add(olderBuilds.poll());
+            }
+            if (olderBuilds.isEmpty()) {
+                it.remove();
+            }
+        }
+        buildsRemaining.addAndGet(-buildIds.size());
+        final List<RunUpdate> updates = new ArrayList<>();
+        try {
+            if (executor == null) {
+                for (int i = 0; i < buildIds.size(); ++i) {
+                    updates.add(readOldRun(jobs.get(i), buildIds.get(i)));
+                }
+            } else {
+                List<Callable<RunUpdate>> tasks = new ArrayList<>();
+                for (int i = 0; i < buildIds.size(); ++i) {
+                    final Job job = jobs.get(i);
+                    final String buildId = buildIds.get(i);
+                    tasks.add(new Callable<RunUpdate>() {
+                        @Override
+                        public RunUpdate call() throws Exception {
+                            return readOldRun(job, buildId);
+                        }
+                    });
+                }
+                runParallel(tasks, new ResultHandler<RunUpdate>() {
+                    @Override
+                    public void handle(int index, RunUpdate update) {
+                        updates.add(update);
+                    }
+                });
+            }
+        } finally {
+            /* builds read before failure are stored */
+            storage.beginUpdate();
+            try {
+                for (RunUpdate update : updates) {
+                    if (update != null) {
+                        storeNewRuns(update.run.getJob(), Collections.singletonList(update));
+                    }
+                }
+            } finally {
+                storage.endUpdate();
+            }
+            updateWatches();
+        }
+        return !backfillBuilds.isEmpty();
+    }
+
+    /* returns null if build was deleted in the meantime */
+    RunUpdate readOldRun(Job job, String buildId) throws IOException {
+        if (!Files.isDirectory(jobsRoot.resolve(job.getName()).resolve("builds").resolve(buildId))) {
+            return null;
+        }
+        return readNewRun(job, buildId);
+    }
+
+    public int getJobsScanned() {
+        return jobsScanned.get();
+    }
+
+    public long getBuildsIngested() {
+        return buildsIngested.get();
+    }
+
+    /**
+     * Returns number of older builds waiting for backfill.
+     *
+     * @return number of builds
+     */
+    public long getBuildsRemaining() {
+        return buildsRemaining.get();
+    }
+
     public BuildXmlHandler parseBuildXml(Path buildXml) {
         BuildXmlHandler handler = null;
         if (Files.exists(buildXml)) {
             try {
-                SAXParserFactory factory = SAXParserFactory.newInstance();
-                SAXParser saxParser;
-                saxParser = factory.newSAXParser();
                 handler = new BuildXmlHandler();
-                saxParser.parse(buildXml.toFile(), handler);
+                handler.setStopWhenComplete(true);
+                handler.parse(buildXml);
             } catch (Exception e) {
                 return null;
                 /* Ignore parser errors */
@@ -214,17 +909,154 @@ public class JenkinsPoller {
         return Run.RUNNING;
     }
 
-    public void pollRunning() throws IOException {
+    public void pollRunning() throws Exception {
+        if (maxRecheckInterval > 0) {
+            pollScheduledRuns();
+        } else {
+            pollRuns(storage.getUnfinishedRuns());
+        }
+    }
+
+    /*
+     * Polls only unfinished runs, whose next check time has come. Run is
+     * checked when it is expected to finish according to duration of
+     * previous runs of its job, if it takes longer, interval doubles up
+     * to maxRecheckInterval.
+     */
+    void pollScheduledRuns() throws Exception {
+        long now = currentTimeMillis();
+        Set<Run> unfinishedRuns = new HashSet<>();
         for (Run run : storage.getUnfinishedRuns()) {
-            processRun(run);
-            int status = run.getStatus();
-            if (status != Run.RUNNING) {
-                storage.removeUnfinishedRun(run);
+            unfinishedRuns.add(run);
+            ScheduledRun known = scheduledRuns.get(run);
+            if (known == null || known.run != run) {
+                /* e.g. loaded from storage file, check it now */
+                ScheduledRun scheduled = new ScheduledRun(run, now, 0);
+                scheduled.nextCheck = now;
+                scheduledRuns.put(run, scheduled);
+                recheckQueue.add(scheduled);
+            }
+        }
+        List<ScheduledRun> dueRuns = new ArrayList<>();
+        List<Run> runs = new ArrayList<>();
+        while (!recheckQueue.isEmpty() && recheckQueue.peek().nextCheck <= now) {
+            ScheduledRun scheduled = recheckQueue.poll();
+            if (scheduledRuns.get(scheduled.run) != scheduled) {
+                /* rescheduled or finished */
+                continue;
+            }
+            if (!unfinishedRuns.contains(scheduled.run)) {
+                scheduledRuns.remove(scheduled.run);
+                continue;
             }
+            dueRuns.add(scheduled);
+            runs.add(scheduled.run);
+        }
+        addSkippedStats(unfinishedRuns.size() - runs.size());
+        try {
+            pollRuns(runs);
+        } finally {
+            for (ScheduledRun scheduled : dueRuns) {
+                Run run = scheduled.run;
+                if (scheduledRuns.get(run) != scheduled) {
+                    /* updated, rescheduled by applyRunUpdate */
+                    continue;
+                }
+                if (run.getStatus() == Run.RUNNING) {
+                    scheduleRun(run, scheduled.start, scheduled.interval, now);
+                } else {
+                    scheduledRuns.remove(run);
+                }
+            }
+        }
+    }
+
+    private void scheduleRun(Run run, long start, long interval, long now) {
+        ScheduledRun scheduled = new ScheduledRun(run, start, interval);
+        Long expectedDuration = jobDurations.get(run.getJob());
+        if (expectedDuration != null && start + expectedDuration > now) {
+            /* check when run is expected to finish */
+            scheduled.interval = 0;
+            scheduled.nextCheck = start + expectedDuration;
+        } else {
+            scheduled.interval = interval == 0 ? minRecheckInterval : interval * 2;
+            scheduled.interval = Math.min(scheduled.interval, maxRecheckInterval);
+            scheduled.nextCheck = now + scheduled.interval;
+        }
+        scheduled.nextCheck = Math.min(scheduled.nextCheck, now + maxRecheckInterval);
+        scheduledRuns.put(run, scheduled);
+        recheckQueue.add(scheduled);
+    }
+
+    /* called for every read of build.xml */
+    private void updateRunSchedule(RunUpdate update) {
+        Run run = update.run;
+        if (run.isFinished()) {
+            scheduledRuns.remove(run);
+            if (update.duration >= 0) {
+                Job job = run.getJob();
+                Long duration = jobDurations.get(job);
+                jobDurations.put(job, duration == null ? update.duration : (3 * duration + update.duration) / 4);
+            }
+        } else {
+            long now = currentTimeMillis();
+            ScheduledRun known = scheduledRuns.get(run);
+            long start = update.startTime >= 0 ? update.startTime
+                    : known != null ? known.start : now;
+            scheduleRun(run, start, 0, now);
+        }
+    }
+
+    void pollRuns(Iterable<Run> runsToPoll) throws Exception {
+        if (executor == null) {
+            for (Run run : runsToPoll) {
+                processRun(run);
+                updateUnfinished(run);
+            }
+            return;
+        }
+        List<Callable<RunUpdate>> tasks = new ArrayList<>();
+        for (final Run run : runsToPoll) {
+            tasks.add(new Callable<RunUpdate>() {
+                @Override
+                public RunUpdate call() throws Exception {
+                    return readRun(run);
+                }
+            });
+        }
+        runParallel(tasks, new ResultHandler<RunUpdate>() {
+            @Override
+            public void handle(int index, RunUpdate update) {
+                if (update != null) {
+                    applyRunUpdate(update);
+                    updateUnfinished(update.run);
+                }
+            }
+        });
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    void updateUnfinished(Run run) {
+        int status = run.getStatus();
+        if (status != Run.RUNNING) {
+            storage.removeUnfinishedRun(run);
         }
     }
 
     void processRun(Run run) throws IOException {
+        applyRunUpdate(readRun(run));
+    }
+
+    /*
+     * Reads state of run from its build.xml, returns null if there is nothing
+     * to update. Does not modify run or storage, so it may be called
+     * from worker threads.
+     */
+    RunUpdate readRun(Run run) throws IOException {
         Job owningJob = run.getJob();
         Path jobDir = jobsRoot.resolve(owningJob.getName());
         Path buildsDir = jobDir.resolve("builds");
@@ -233,29 +1065,55 @@ public class JenkinsPoller {
         if (Files.exists(buildXml)) {
             long modifTime = Files.getLastModifiedTime(buildXml).toMillis();
             if (modifTime > run.modifTime) {
-                run.modifTime = modifTime;
                 int status = Run.RUNNING;
+                Pkg pkg = null;
+                long startTime = -1;
+                long duration = -1;
                 BuildXmlHandler handler = parseBuildXml(buildXml);
                 if (handler != null) {
                     status = getStatus(handler);
+                    startTime = parseMillis(handler.getTimestamp());
+                    duration = parseMillis(handler.getDuration());
                     String pkgName = handler.getPkgName();
                     String pkgVersion = handler.getPkgVersion();
                     String pkgRelease = handler.getPkgRelease();
                     if (pkgName != null && pkgVersion != null && pkgRelease != null) {
-                        String nvr = pkgName + "-" + pkgVersion + "-" + pkgRelease;
-                        //run.build = nvr;
-                        Pkg pkg = storage.getPkg(nvr);
-                        if (pkg == null) {
-                            pkg = new Pkg(nvr);
-                            storage.storePkg(pkg);
-                        }
-                        storage.addPkgRun(pkg, run);
+                        pkg = new Pkg(pkgName, pkgVersion, pkgRelease);
                     }
                 }
-                run.setStatus(status);
+                return new RunUpdate(run, modifTime, status, pkg, startTime, duration);
             }
         } else if (run.getStatus() == Run.UNKNOWN) {
-            run.setStatus(Run.RUNNING);
+            return new RunUpdate(run, run.modifTime, Run.RUNNING, null, -1, -1);
+        }
+        return null;
+    }
+
+    void applyRunUpdate(RunUpdate update) {
+        if (update == null) {
+            return;
+        }
+        Run run = update.run;
+        run.modifTime = update.modifTime;
+        if (update.pkg != null) {
+            //run.build = nvr;
+            Pkg pkg = storage.getPkg(update.pkg.getStrId());
+            if (pkg == null) {
+                pkg = update.pkg;
+                storage.storePkg(pkg);
+            }
+            storage.addPkgRun(pkg, run);
+        }
+        run.setStatus(update.status);
+        if (maxRecheckInterval > 0) {
+            updateRunSchedule(update);
+        }
+        if (run.isFinished()) {
+            Job job = run.getJob();
+            Run latestFinished = storage.getJobLatestFinishedRun(job);
+            if (latestFinished == null || latestFinished.compareTo(run) < 0) {
+                storage.setJobLatestFinishedRun(job, run);
+            }
         }
     }
 
@@ -273,6 +1131,86 @@ public class JenkinsPoller {
             return;
         }
         storage.removeJob(name);
+        jobDurations.remove(removedJob);
+        knownBuilds.remove(removedJob);
+        listedBuilds.remove(removedJob);
+        probedBuildDirs.remove(removedJob);
+        backfillChecked.remove(removedJob);
+        backfillResumed.remove(removedJob);
+    }
+
+    static class ScheduledJob implements Comparable<ScheduledJob> {
+
+        final Job job;
+        long nextCheck;
+        long interval = 0;
+
+        ScheduledJob(Job job, long nextCheck) {
+            this.job = job;
+            this.nextCheck = nextCheck;
+        }
+
+        @Override
+        public int compareTo(ScheduledJob t) {
+            return Long.compare(nextCheck, t.nextCheck);
+        }
+    }
+
+    private static long parseMillis(String s) {
+        if (s == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static class ScheduledRun implements Comparable<ScheduledRun> {
+
+        final Run run;
+        final long start;
+        long nextCheck;
+        long interval;
+
+        ScheduledRun(Run run, long start, long interval) {
+            this.run = run;
+            this.start = start;
+            this.interval = interval;
+        }
+
+        @Override
+        public int compareTo(ScheduledRun t) {
+            return Long.compare(nextCheck, t.nextCheck);
+        }
+    }
+
+    /* see runParallel */
+    interface ResultHandler<T> {
+
+        void handle(int index, T result) throws Exception;
+    }
+
+    static class RunUpdate {
+
+        final Run run;
+        final long modifTime;
+        final int status;
+        /* not stored yet, null if build.xml has no nvr */
+        final Pkg pkg;
+        /* from build.xml, -1 if not known */
+        final long startTime;
+        final long duration;
+
+        RunUpdate(Run run, long modifTime, int status, Pkg pkg, long startTime, long duration) {
+            this.run = run;
+            this.modifTime = modifTime;
+            this.status = status;
+            this.pkg = pkg;
+            this.startTime = startTime;
+            this.duration = duration;
+        }
     }
 
 }
@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.poll;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import resultsview.storage.Job;
+import resultsview.storage.Run;
+
+/**
+ * Watches jobs directory, builds directories of jobs and directories of
+ * unfinished runs for changes. Events are not reliable on network file
+ * systems, so this only complements periodic full scan done by poller.
+ */
+public class JobsWatcher implements Closeable {
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+");
+
+    private final Path jobsRoot;
+    private final WatchService watchService;
+
+    private WatchKey rootKey = null;
+    private final Map<Job, WatchKey> jobKeys = new HashMap<>();
+    private final Map<Run, WatchKey> runKeys = new HashMap<>();
+    private final Map<WatchKey, Job> keyJobs = new HashMap<>();
+    private final Map<WatchKey, Run> keyRuns = new HashMap<>();
+
+    public JobsWatcher(Path jobsRoot) throws IOException {
+        this.jobsRoot = jobsRoot;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    private WatchKey register(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try {
+            return dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            /* e.g. watch limit reached, periodic scan still finds changes */
+            return null;
+        }
+    }
+
+    public void watchRoot() {
+        if (rootKey == null) {
+            rootKey = register(jobsRoot);
+        }
+    }
+
+    public void watchJob(Job job) {
+        if (jobKeys.containsKey(job)) {
+            return;
+        }
+        WatchKey key = register(jobsRoot.resolve(job.getName()).resolve("builds"));
+        if (key != null) {
+            jobKeys.put(job, key);
+            keyJobs.put(key, job);
+        }
+    }
+
+    public void watchRun(Run run) {
+        if (runKeys.containsKey(run)) {
+            return;
+        }
+        Path buildDir = jobsRoot.resolve(run.getJob().getName())
+                .resolve("builds")
+                .resolve(run.getName());
+        WatchKey key = register(buildDir);
+        if (key != null) {
+            runKeys.put(run, key);
+            keyRuns.put(key, run);
+        }
+    }
+
+    /**
+     * Stops watching jobs and runs, which are not in given collections.
+     *
+     * @param jobs jobs to keep watching
+     * @param runs runs to keep watching
+     */
+    public void retain(Set<Job> jobs, Set<Run> runs) {
+        for (Iterator<Map.Entry<Job, WatchKey>> it = jobKeys.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Job, WatchKey> entry = it.next();
+            if (!jobs.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                keyJobs.remove(entry.getValue());
+                it.remove();
+            }
+        }
+        for (Iterator<Map.Entry<Run, WatchKey>> it = runKeys.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Run, WatchKey> entry = it.next();
+            if (!runs.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                keyRuns.remove(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Collects events received since last call, does not block.
+     *
+     * @return changes
+     */
+    public Changes takeChanges() {
+        Changes changes = new Changes();
+        if (rootKey == null) {
+            changes.rescan = true;
+        }
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            Job job = keyJobs.get(key);
+            Run run = keyRuns.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    changes.rescan = true;
+                    continue;
+                }
+                String name = ((Path) event.context()).getFileName().toString();
+                if (key == rootKey) {
+                    changes.rootChanged = true;
+                } else if (job != null) {
+                    /* ignore lastSuccessfulBuild links etc. */
+                    if (NUMBER_PATTERN.matcher(name).matches()) {
+                        changes.jobs.add(job);
+                    }
+                } else if (run != null) {
+                    /* ignore changes of build log */
+                    if (name.equals("build.xml")) {
+                        changes.runs.add(run);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                /* directory no longer accessible */
+                if (key == rootKey) {
+                    rootKey = null;
+                    changes.rescan = true;
+                } else if (job != null) {
+                    jobKeys.remove(job);
+                    keyJobs.remove(key);
+                    changes.jobs.add(job);
+                } else if (run != null) {
+                    runKeys.remove(run);
+                    keyRuns.remove(key);
+                    changes.runs.add(run);
+                }
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    public static class Changes {
+
+        boolean rescan = false;
+        boolean rootChanged = false;
+        final Set<Job> jobs = new HashSet<>();
+        final Set<Run> runs = new HashSet<>();
+
+        public boolean isRescan() {
+            return rescan;
+        }
+
+        public boolean isRootChanged() {
+            return rootChanged;
+        }
+
+        public Set<Job> getJobs() {
+            return jobs;
+        }
+
+        public Set<Run> getRuns() {
+            return runs;
+        }
+
+        public boolean isEmpty() {
+            return !rescan && !rootChanged && jobs.isEmpty() && runs.isEmpty();
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.servlet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered writer of UTF-8 encoded HTML (or JSON). Text is escaped and encoded
+ * in a single pass directly into the buffer, static parts of page can be
+ * encoded once (see {@link #bytes(String)}) and written as bytes.
+ */
+public class HtmlWriter implements Closeable {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position = 0;
+    /* UTF-8 bytes of one char being url encoded */
+    private final byte[] scratch = new byte[4];
+
+    public HtmlWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    public HtmlWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        /* enough for any encoded char */
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    public static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void ensure(int count) throws IOException {
+        if (buffer.length - position < count) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    public HtmlWriter raw(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return this;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    /* writes markup, which is not escaped */
+    public HtmlWriter raw(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[position++] = (byte) c;
+            } else {
+                i = encode(s, i, c);
+            }
+        }
+        return this;
+    }
+
+    /* writes text escaped for element content and attribute values */
+    public HtmlWriter text(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    raw("&amp;");
+                    break;
+                case '<':
+                    raw("&lt;");
+                    break;
+                case '>':
+                    raw("&gt;");
+                    break;
+                case '"':
+                    raw("&quot;");
+                    break;
+                case '\'':
+                    raw("&apos;");
+                    break;
+                default:
+                    if (c < 0x80) {
+                        if (position == buffer.length) {
+                            flushBuffer();
+                        }
+                        buffer[position++] = (byte) c;
+                    } else {
+                        i = encode(s, i, c);
+                    }
+            }
+        }
+        return this;
+    }
+
+    /* writes JSON string literal including quotes, used by JSON API */
+    public HtmlWriter jsonString(String s) throws IOException {
+        ensure(1);
+        buffer[position++] = '"';
+        int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[position++] = (byte) c;
+                continue;
+            }
+            ensure(6);
+            switch (c) {
+                case '"':
+                case '\\':
+                    buffer[position++] = '\\';
+                    buffer[position++] = (byte) c;
+                    break;
+                case '\n':
+                    buffer[position++] = '\\';
+                    buffer[position++] = 'n';
+                    break;
+                case '\r':
+                    buffer[position++] = '\\';
+                    buffer[position++] = 'r';
+                    break;
+                case '\t':
+                    buffer[position++] = '\\';
+                    buffer[position++] = 't';
+                    break;
+                default:
+                    if (c < 0x20) {
+                        buffer[position++] = '\\';
+                        buffer[position++] = 'u';
+                        buffer[position++] = '0';
+                        buffer[position++] = '0';
+                        buffer[position++] = HEX[c >> 4];
+                        buffer[position++] = HEX[c & 0xF];
+                    } else {
+                        i = encode(s, i, c);
+                    }
+            }
+        }
+        ensure(1);
+        buffer[position++] = '"';
+        return this;
+    }
+
+    /* writes text encoded as by URLEncoder.encode(s, "UTF-8") */
+    public HtmlWriter url(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            ensure(12);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '-' || c == '*' || c == '_') {
+                buffer[position++] = (byte) c;
+            } else if (c == ' ') {
+                buffer[position++] = '+';
+            } else if (c < 0x80) {
+                percent(c);
+            } else {
+                /* encode char to buffer and percent-encode its bytes in place */
+                int start = position;
+                i = encode(s, i, c);
+                int count = position - start;
+                System.arraycopy(buffer, start, scratch, 0, count);
+                position = start;
+                for (int j = 0; j < count; ++j) {
+                    percent(scratch[j] & 0xFF);
+                }
+            }
+        }
+        return this;
+    }
+
+    private void percent(int b) {
+        buffer[position++] = '%';
+        buffer[position++] = HEX[b >> 4];
+        buffer[position++] = HEX[b & 0xF];
+    }
+
+    /* encodes non-ASCII char at index, returns index of its last char */
+    private int encode(String s, int i, char c) throws IOException {
+        ensure(4);
+        if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            return i;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer[position++] = (byte) (0xF0 | (cp >> 18));
+            buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+            return i + 1;
+        }
+        if (Character.isSurrogate(c)) {
+            /* unpaired surrogate, same replacement as String.getBytes */
+            buffer[position++] = '?';
+            return i;
+        }
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        return i;
+    }
+
+    public HtmlWriter number(long n) throws IOException {
+        return raw(Long.toString(n));
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+}
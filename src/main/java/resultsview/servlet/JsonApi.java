@@ -0,0 +1,574 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import resultsview.storage.ChangeLog;
+import resultsview.storage.Job;
+import resultsview.storage.Pkg;
+import resultsview.storage.Run;
+import resultsview.storage.StorageEvent;
+import resultsview.storage.StorageInterface;
+
+/*
+ * Machine readable listing of jobs, pkgs and runs (/api/jobs, /api/pkgs,
+ * /api/runs) and of their changes (/api/changes). Records are written while storage is iterated in chunks, so
+ * memory use does not depend on size of the result.
+ *
+ * Parameters:
+ *   format  json (default): {"items":[...],"next":cursor or null}
+ *           ndjson: record per line, if there are more records after limit,
+ *           last line is {"next":cursor}
+ *   limit   max. number of records, 0 (default) = no limit
+ *   cursor  first record to return, next of previous response
+ *   pattern regex matched against job name (also job/run for runs, pkg for pkgs)
+ *   pkg     runs of given pkg (runs)
+ *   name, latest  pkgs with given name, latest pkgs only (pkgs)
+ *   status  comma separated statuses, e.g. FAILURE,UNSTABLE (runs, jobs)
+ *   since, until  modification time of run in ms since epoch, [since, until) (runs)
+ *
+ * /api/changes?since=watermark returns changes done after watermark of
+ * earlier response: {"watermark":w,"resync":false,"changes":[...]}. When
+ * watermark is missing, too old or from other instance of the servlet,
+ * "resync" is true and client has to read /api/jobs, /api/runs and
+ * /api/pkgs again (after reading the new watermark, changes in between
+ * are then in the next response). Removal of job is reported as removal
+ * of its runs, pkgs left without runs are reported as PKG_REMOVED, so pkgs
+ * of client stay same as /api/pkgs.
+ *
+ * Response is gzip compressed, when client accepts it.
+ */
+public class JsonApi {
+
+    /* records read from storage at once */
+    private static final int CHUNK = 1000;
+
+    private final StorageInterface storage;
+    private final ChangeLog changeLog;
+    /* prefix of watermarks, generations of other instances are not comparable */
+    private final String instanceId;
+
+    public JsonApi(StorageInterface storage, ChangeLog changeLog, String instanceId) {
+        this.storage = storage;
+        this.changeLog = changeLog;
+        this.instanceId = instanceId;
+    }
+
+    public void process(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String servletPath = request.getServletPath();
+        if (servletPath.equals("/api/changes")) {
+            writeChanges(request, response);
+            return;
+        }
+        if (!servletPath.equals("/api/jobs") && !servletPath.equals("/api/runs") && !servletPath.equals("/api/pkgs")) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unexpected servlet path: " + servletPath);
+            return;
+        }
+        Filter filter;
+        try {
+            filter = new Filter(request);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        String format = request.getParameter("format");
+        boolean ndjson = format != null && format.trim().equals("ndjson");
+        if (format != null && !ndjson && !format.trim().equals("json")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format: " + format);
+            return;
+        }
+        response.setContentType(ndjson ? "application/x-ndjson;charset=UTF-8" : "application/json;charset=UTF-8");
+        try (HtmlWriter out = new HtmlWriter(openOutput(request, response))) {
+            Records records = new Records(out, ndjson, filter.limit);
+            records.begin();
+            switch (servletPath) {
+                case "/api/jobs":
+                    writeJobs(records, filter);
+                    break;
+                case "/api/runs":
+                    if (filter.pkg != null) {
+                        writePkgRuns(records, filter);
+                    } else {
+                        writeRuns(records, filter);
+                    }
+                    break;
+                case "/api/pkgs":
+                    writePkgs(records, filter);
+                    break;
+            }
+            records.end();
+        }
+    }
+
+    private static OutputStream openOutput(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader("Vary", "Accept-Encoding");
+        OutputStream os = response.getOutputStream();
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            os = new GZIPOutputStream(os, 8192);
+        }
+        return os;
+    }
+
+    private void writeChanges(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ChangeLog.Changes changes = null;
+        String since = request.getParameter("since");
+        if (since != null) {
+            since = since.trim();
+            int dash = since.lastIndexOf('-');
+            if (dash >= 0 && since.substring(0, dash).equals(instanceId)) {
+                try {
+                    changes = changeLog.getChangesSince(Long.parseLong(since.substring(dash + 1)));
+                } catch (NumberFormatException e) {
+                    /* resync */
+                }
+            }
+        }
+        /* generation of resync is read before client reads storage */
+        long generation = changes == null ? changeLog.getGeneration() : changes.getGeneration();
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        try (HtmlWriter out = new HtmlWriter(openOutput(request, response))) {
+            out.raw("{\"watermark\":").jsonString(instanceId + "-" + generation);
+            out.raw(",\"resync\":").raw(changes == null ? "true" : "false");
+            out.raw(",\"changes\":[");
+            if (changes != null) {
+                boolean first = true;
+                for (StorageEvent event : changes.getEvents()) {
+                    out.raw(first ? "\n" : ",\n");
+                    first = false;
+                    writeEvent(out, event);
+                }
+            }
+            out.raw("\n]}\n");
+        }
+    }
+
+    private static void writeEvent(HtmlWriter out, StorageEvent event) throws IOException {
+        out.raw("{\"type\":").jsonString(event.getType().name());
+        out.raw(",\"job\":").jsonString(event.getJob().getName());
+        Run run = event.getRun();
+        if (run != null) {
+            out.raw(",\"run\":").jsonString(run.getName());
+            out.raw(",\"status\":").jsonString(Run.getStatusName(event.getStatus()));
+        }
+        Pkg pkg = event.getPkg();
+        if (pkg != null) {
+            out.raw(",\"pkg\":").jsonString(pkg.getStrId());
+        }
+        out.raw("}");
+    }
+
+    private void writeJobs(Records records, Filter filter) throws IOException {
+        String from = filter.cursor;
+        boolean skipFrom = false;
+        for (;;) {
+            List<Job> jobs = storage.getJobs(from, false, CHUNK);
+            for (Job job : jobs) {
+                if (skipFrom) {
+                    skipFrom = false;
+                    if (job.getName().equals(from)) {
+                        continue;
+                    }
+                }
+                if (!writeJob(records, filter, job)) {
+                    return;
+                }
+            }
+            if (jobs.size() < CHUNK) {
+                return;
+            }
+            from = jobs.get(jobs.size() - 1).getName();
+            skipFrom = true;
+        }
+    }
+
+    /* returns false, when no more records are to be written */
+    private boolean writeJob(Records records, Filter filter, Job job) throws IOException {
+        String jobName = job.getName();
+        if (filter.pattern != null && !filter.pattern.matcher(jobName).find()) {
+            return true;
+        }
+        Run latestRun = storage.getJobLatestRun(job);
+        Run finishedRun = latestRun != null && latestRun.isFinished() ? latestRun : storage.getJobLatestFinishedRun(job);
+        int status = finishedRun == null ? Run.UNKNOWN : finishedRun.getStatus();
+        if (filter.statuses != null && !filter.statuses[status]) {
+            return true;
+        }
+        if (records.isFull()) {
+            records.next = jobName;
+            return false;
+        }
+        HtmlWriter out = records.startRecord();
+        out.raw("{\"name\":").jsonString(jobName);
+        out.raw(",\"status\":").jsonString(Run.getStatusName(status));
+        out.raw(",\"latestFinished\":");
+        if (finishedRun == null) {
+            out.raw("null");
+        } else {
+            out.jsonString(finishedRun.getName());
+        }
+        out.raw(",\"running\":").raw(latestRun != null && !latestRun.isFinished() ? "true" : "false");
+        out.raw("}");
+        records.endRecord();
+        return true;
+    }
+
+    private void writeRuns(Records records, Filter filter) throws IOException {
+        /* runs of all jobs, in order of jobs */
+        Run fromRun = filter.cursor == null ? null : parseRun(filter.cursor);
+        String from = fromRun == null ? null : fromRun.getJob().getName();
+        boolean skipFrom = false;
+        for (;;) {
+            List<Job> jobs = storage.getJobs(from, false, CHUNK);
+            for (Job job : jobs) {
+                if (skipFrom) {
+                    skipFrom = false;
+                    if (job.getName().equals(from)) {
+                        continue;
+                    }
+                }
+                if (!writeJobRuns(records, filter, job, fromRun)) {
+                    return;
+                }
+                fromRun = null;
+            }
+            if (jobs.size() < CHUNK) {
+                return;
+            }
+            from = jobs.get(jobs.size() - 1).getName();
+            skipFrom = true;
+        }
+    }
+
+    /* returns false, when no more records are to be written */
+    private boolean writeJobRuns(Records records, Filter filter, Job job, Run from) throws IOException {
+        boolean skipFrom = false;
+        for (;;) {
+            List<Run> runs = storage.getJobRuns(job, from, false, CHUNK);
+            for (Run run : runs) {
+                if (skipFrom) {
+                    skipFrom = false;
+                    if (run.equals(from)) {
+                        continue;
+                    }
+                }
+                if (!writeRun(records, filter, run)) {
+                    return false;
+                }
+            }
+            if (runs.size() < CHUNK) {
+                return true;
+            }
+            from = runs.get(runs.size() - 1);
+            skipFrom = true;
+        }
+    }
+
+    private void writePkgRuns(Records records, Filter filter) throws IOException {
+        Pkg pkg = storage.getPkg(filter.pkg);
+        if (pkg == null) {
+            return;
+        }
+        Run from = filter.cursor == null ? null : parseRun(filter.cursor);
+        boolean skipFrom = false;
+        for (;;) {
+            List<Run> runs = storage.getPkgRuns(pkg, from, false, CHUNK);
+            for (Run run : runs) {
+                if (skipFrom) {
+                    skipFrom = false;
+                    if (run.equals(from)) {
+                        continue;
+                    }
+                }
+                if (!writeRun(records, filter, run)) {
+                    return;
+                }
+            }
+            if (runs.size() < CHUNK) {
+                return;
+            }
+            from = runs.get(runs.size() - 1);
+            skipFrom = true;
+        }
+    }
+
+    private static Run parseRun(String cursor) {
+        int slash = cursor.indexOf('/');
+        return slash < 0 ? new Run(new Job(cursor), "") : new Run(new Job(cursor.substring(0, slash)), cursor.substring(slash + 1));
+    }
+
+    /* returns false, when no more records are to be written */
+    private static boolean writeRun(Records records, Filter filter, Run run) throws IOException {
+        int status = run.getStatus();
+        if (filter.statuses != null && !filter.statuses[status]) {
+            return true;
+        }
+        long modifTime = run.modifTime;
+        if (modifTime < filter.since || modifTime >= filter.until) {
+            return true;
+        }
+        String jobName = run.getJob().getName();
+        String runName = run.getName();
+        if (filter.pattern != null && !filter.pattern.matcher(jobName).find()
+                && !filter.pattern.matcher(jobName + "/" + runName).find()) {
+            return true;
+        }
+        if (records.isFull()) {
+            records.next = jobName + "/" + runName;
+            return false;
+        }
+        HtmlWriter out = records.startRecord();
+        out.raw("{\"job\":").jsonString(jobName);
+        out.raw(",\"run\":").jsonString(runName);
+        out.raw(",\"status\":").jsonString(Run.getStatusName(status));
+        out.raw(",\"modified\":");
+        if (modifTime == Long.MIN_VALUE) {
+            out.raw("null");
+        } else {
+            out.number(modifTime);
+        }
+        out.raw("}");
+        records.endRecord();
+        return true;
+    }
+
+    private void writePkgs(Records records, Filter filter) throws IOException {
+        /* name and latest are looked up in index of package names */
+        List<Pkg> pkgs;
+        if (filter.name != null) {
+            if (filter.latest) {
+                Pkg latestPkg = storage.getLatestPkg(filter.name);
+                pkgs = latestPkg == null ? Collections.<Pkg>emptyList() : Collections.singletonList(latestPkg);
+            } else {
+                pkgs = new ArrayList<>(storage.getNamePkgs(filter.name));
+            }
+        } else if (filter.latest) {
+            Collection<String> names = storage.getPkgNames();
+            pkgs = new ArrayList<>(names.size());
+            for (String pkgName : names) {
+                Pkg latestPkg = storage.getLatestPkg(pkgName);
+                if (latestPkg != null) {
+                    pkgs.add(latestPkg);
+                }
+            }
+        } else {
+            pkgs = null;
+        }
+        Pkg from = filter.cursor == null ? null : new Pkg(filter.cursor);
+        if (pkgs != null) {
+            /* same order as of all pkgs, so cursor works */
+            Collections.sort(pkgs);
+            for (Pkg pkg : pkgs) {
+                if ((from == null || pkg.compareTo(from) >= 0) && !writePkg(records, filter, pkg)) {
+                    return;
+                }
+            }
+            return;
+        }
+        boolean skipFrom = false;
+        for (;;) {
+            List<Pkg> chunk = storage.getPkgs(from, false, CHUNK);
+            for (Pkg pkg : chunk) {
+                if (skipFrom) {
+                    skipFrom = false;
+                    if (pkg.equals(from)) {
+                        continue;
+                    }
+                }
+                if (!writePkg(records, filter, pkg)) {
+                    return;
+                }
+            }
+            if (chunk.size() < CHUNK) {
+                return;
+            }
+            from = chunk.get(chunk.size() - 1);
+            skipFrom = true;
+        }
+    }
+
+    /* returns false, when no more records are to be written */
+    private boolean writePkg(Records records, Filter filter, Pkg pkg) throws IOException {
+        String strId = pkg.getStrId();
+        if (filter.pattern != null && !filter.pattern.matcher(strId).find()) {
+            return true;
+        }
+        if (records.isFull()) {
+            records.next = strId;
+            return false;
+        }
+        HtmlWriter out = records.startRecord();
+        out.raw("{\"id\":").jsonString(strId);
+        out.raw(",\"name\":").jsonString(pkg.getName());
+        out.raw(",\"version\":").jsonString(pkg.getVersion());
+        out.raw(",\"release\":").jsonString(pkg.getRelease());
+        out.raw(",\"runs\":").number(storage.getPkgRunsCount(pkg));
+        out.raw("}");
+        records.endRecord();
+        return true;
+    }
+
+    /* request parameters */
+    private static class Filter {
+
+        final Pattern pattern;
+        final String pkg;
+        final String name;
+        final boolean latest;
+        /* indexed by status, null = any status */
+        final boolean[] statuses;
+        final long since;
+        final long until;
+        final int limit;
+        final String cursor;
+
+        Filter(HttpServletRequest request) {
+            String patternVal = request.getParameter("pattern");
+            try {
+                pattern = patternVal == null || patternVal.isEmpty() ? null : Pattern.compile(patternVal);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid pattern: " + e.getMessage(), e);
+            }
+            pkg = trimmed(request.getParameter("pkg"));
+            name = trimmed(request.getParameter("name"));
+            String latestVal = trimmed(request.getParameter("latest"));
+            latest = latestVal != null && !latestVal.equals("false");
+            String statusVal = trimmed(request.getParameter("status"));
+            if (statusVal == null) {
+                statuses = null;
+            } else {
+                statuses = new boolean[Run.NOT_BUILT + 1];
+                for (String s : statusVal.split(",")) {
+                    int status = Run.parseStatus(s.trim().toUpperCase());
+                    if (status < 0) {
+                        throw new IllegalArgumentException("Unknown status: " + s);
+                    }
+                    statuses[status] = true;
+                }
+            }
+            since = parseLong(request, "since", Long.MIN_VALUE);
+            until = parseLong(request, "until", Long.MAX_VALUE);
+            long limitVal = parseLong(request, "limit", 0);
+            if (limitVal < 0 || limitVal > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid limit: " + limitVal);
+            }
+            limit = (int) limitVal;
+            cursor = trimmed(request.getParameter("cursor"));
+        }
+
+        private static String trimmed(String value) {
+            if (value == null) {
+                return null;
+            }
+            value = value.trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        private static long parseLong(HttpServletRequest request, String param, long defaultValue) {
+            String value = trimmed(request.getParameter(param));
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + param + ": " + value, e);
+            }
+        }
+    }
+
+    /* writes records in json or ndjson format, counts them for limit */
+    private static class Records {
+
+        final HtmlWriter out;
+        final boolean ndjson;
+        final int limit;
+        int count = 0;
+        /* cursor of first record over limit */
+        String next = null;
+
+        Records(HtmlWriter out, boolean ndjson, int limit) {
+            this.out = out;
+            this.ndjson = ndjson;
+            this.limit = limit;
+        }
+
+        boolean isFull() {
+            return limit > 0 && count >= limit;
+        }
+
+        void begin() throws IOException {
+            if (!ndjson) {
+                out.raw("{\"items\":[");
+            }
+        }
+
+        HtmlWriter startRecord() throws IOException {
+            if (ndjson) {
+                /* nothing */
+            } else if (count > 0) {
+                out.raw(",\n");
+            } else {
+                out.raw("\n");
+            }
+            ++count;
+            return out;
+        }
+
+        void endRecord() throws IOException {
+            if (ndjson) {
+                out.raw("\n");
+            }
+        }
+
+        void end() throws IOException {
+            if (ndjson) {
+                if (next != null) {
+                    out.raw("{\"next\":").jsonString(next).raw("}\n");
+                }
+                return;
+            }
+            out.raw("\n],\"next\":");
+            if (next == null) {
+                out.raw("null");
+            } else {
+                out.jsonString(next);
+            }
+            out.raw("}\n");
+        }
+    }
+
+}
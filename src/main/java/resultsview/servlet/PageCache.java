@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.servlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered pages. Page is valid only for generation of storage,
+ * for which it was rendered, so it does not need to be invalidated when
+ * storage changes, next request just renders it again. Least recently
+ * used pages are evicted, when total size of pages exceeds maximum size.
+ */
+public class PageCache {
+
+    private final long maxSize;
+    private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxSize maximum total size of cached pages in bytes
+     */
+    public PageCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key page key (path and parameters)
+     * @param generation current generation of storage
+     * @return page or null if it is not cached for this generation
+     */
+    public synchronized byte[] get(String key, long generation) {
+        Page page = pages.get(key);
+        if (page == null || page.generation != generation) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return page.content;
+    }
+
+    public synchronized void put(String key, long generation, byte[] content) {
+        if (content.length > maxSize) {
+            return;
+        }
+        Page oldPage = pages.get(key);
+        if (oldPage != null) {
+            if (oldPage.generation > generation) {
+                /* newer page was rendered in the meantime */
+                return;
+            }
+            size -= oldPage.content.length;
+        }
+        pages.put(key, new Page(generation, content));
+        size += content.length;
+        for (Iterator<Map.Entry<String, Page>> it = pages.entrySet().iterator(); size > maxSize && it.hasNext();) {
+            size -= it.next().getValue().content.length;
+            it.remove();
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return pages.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Page {
+
+        final long generation;
+        final byte[] content;
+
+        Page(long generation, byte[] content) {
+            this.generation = generation;
+            this.content = content;
+        }
+    }
+
+}
@@ -23,14 +23,16 @@
  */
 package resultsview.servlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.io.InputStream;
-import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -44,21 +46,54 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import resultsview.poll.JenkinsPoller;
+import resultsview.storage.ChangeLog;
+import resultsview.storage.CompactStorage;
 import resultsview.storage.ConcurrentStorage;
 import resultsview.storage.Pkg;
 import resultsview.storage.Run;
 import resultsview.storage.Job;
-import resultsview.storage.Storage;
+import resultsview.storage.EventStorage;
+import resultsview.storage.LogStorage;
+import resultsview.storage.SnapshotStorage;
+import resultsview.storage.StorageFile;
+import resultsview.storage.StorageInterface;
 
 public class ResultsView extends HttpServlet {
 
+    private static final long DEFAULT_POLL_INTERVAL = 60_000;
+    private static final long WATCH_POLL_INTERVAL = 2_000;
+    private static final long DEFAULT_SAVE_INTERVAL = 600_000;
+    private static final long BACKFILL_DELAY = 100;
+    private static final int BACKFILL_BUILDS = 1000;
+    private static final long DEFAULT_PAGE_CACHE_SIZE = 16;
+    private static final int DEFAULT_CHANGES_HISTORY_SIZE = 100_000;
+    private static final String[] PAGE_PARAMS = {"pkg", "pattern", "name", "cursor", "before"};
+    /* parameters kept by links to other pages of table */
+    private static final String[] LINK_PARAMS = {"pkg", "pattern", "name", "latest", "limit"};
+    /* rows of page, if limit is not given, 0 = no limit */
+    private static final int DEFAULT_PAGE_LIMIT = 0;
+    private static final int MAX_PAGE_LIMIT = 100_000;
+    /* rows read at once, when rows are filtered by pattern */
+    private static final int FILTERED_CHUNK = 1000;
+
     private Properties props;
     private String jenkinsUrl;
 
-    private Storage storage;
+    private StorageInterface storage;
+    private JsonApi jsonApi;
     private JenkinsPoller jenkinsPoller;
     private Timer timer;
+    private Path storageFile;
+    private LogStorage logStorage;
+    private EventStorage eventStorage;
+    private PageCache pageCache;
+    private int pageLimit = DEFAULT_PAGE_LIMIT;
+    /* makes ETags of different servlet instances differ,
+       generation starts from 0 after restart */
+    private final String instanceId = Long.toHexString(System.currentTimeMillis());
     private volatile boolean initialPollDone = false;
+    /* start of link to job, jenkins.url is not escaped */
+    private byte[] jobLinkStart;
 
     @Override
     public void init(ServletConfig config) throws ServletException {
@@ -74,259 +109,658 @@ public class ResultsView extends HttpServlet {
             throw new ServletException(e);
         }
         jenkinsUrl = props.getProperty("jenkins.url");
+        jobLinkStart = HtmlWriter.bytes("<a href=\"" + jenkinsUrl + "/job/");
 
         String jobsDir = props.getProperty("jenkins.job.dir");
         String jobPattern = props.getProperty("jenkins.job.pattern");
+        String pollThreads = props.getProperty("jenkins.poll.threads");
+        String pollInterval = props.getProperty("jenkins.poll.interval");
+        String initialBuilds = props.getProperty("jenkins.poll.initial.builds");
+        String adaptiveMax = props.getProperty("jenkins.poll.adaptive.max");
+        String runningMax = props.getProperty("jenkins.poll.running.max");
+        final boolean pollWatch = Boolean.parseBoolean(props.getProperty("jenkins.poll.watch"));
+        boolean pollCursor = Boolean.parseBoolean(props.getProperty("jenkins.poll.cursor"));
+        String storageType = props.getProperty("storage.type", "concurrent");
+        String storageFileName = props.getProperty("storage.file");
+        String saveInterval = props.getProperty("storage.save.interval");
+        String logDir = props.getProperty("storage.log.dir");
+        String pageCacheSize = props.getProperty("page.cache.size");
+        String pageLimitValue = props.getProperty("page.limit");
+        String changesHistorySize = props.getProperty("changes.history.size");
         if (jobsDir == null) {
             throw new ServletException("Required property not configured: jenkins.job.dir");
         }
 
-        storage = new ConcurrentStorage();
+        storage = createStorage(storageType);
+        storageFile = storageFileName == null || logDir != null ? null : Paths.get(storageFileName);
+        if (logDir != null) {
+            try {
+                logStorage = new LogStorage(storage, Paths.get(logDir));
+            } catch (IOException ex) {
+                throw new ServletException("Failed to open storage log: " + logDir, ex);
+            }
+            storage = logStorage;
+        } else if (storageFile != null && Files.exists(storageFile)) {
+            try {
+                StorageFile.load(storageFile, storage);
+            } catch (Exception ex) {
+                Logger.getLogger(ResultsView.class.getName()).log(Level.WARNING, "Failed to load storage file: " + storageFile, ex);
+                /* do not keep partially loaded content */
+                storage = createStorage(storageType);
+            }
+        }
+        final int changesHistory;
+        try {
+            changesHistory = changesHistorySize == null ? DEFAULT_CHANGES_HISTORY_SIZE : Integer.parseInt(changesHistorySize.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value of property changes.history.size: " + changesHistorySize, e);
+        }
+        /* loaded content is not reported as change */
+        eventStorage = new EventStorage(storage);
+        storage = eventStorage;
+        /* has to listen before poller starts changing storage */
+        ChangeLog changeLog = new ChangeLog(eventStorage.getGeneration(), changesHistory);
+        eventStorage.addListener(changeLog);
+        jsonApi = new JsonApi(storage, changeLog, instanceId);
         jenkinsPoller = new JenkinsPoller(Paths.get(jobsDir), storage);
         if (jobPattern != null) {
             jenkinsPoller.jobPattern = Pattern.compile(jobPattern);
         }
+        jenkinsPoller.useBuildCursor = pollCursor;
+        if (adaptiveMax != null) {
+            try {
+                jenkinsPoller.maxCheckInterval = Long.parseLong(adaptiveMax.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value of property jenkins.poll.adaptive.max: " + adaptiveMax, e);
+            }
+        }
+        if (runningMax != null) {
+            try {
+                jenkinsPoller.maxRecheckInterval = Long.parseLong(runningMax.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value of property jenkins.poll.running.max: " + runningMax, e);
+            }
+        }
+        if (initialBuilds != null) {
+            try {
+                jenkinsPoller.initialBuilds = Integer.parseInt(initialBuilds.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value of property jenkins.poll.initial.builds: " + initialBuilds, e);
+            }
+        }
+        if (pollThreads != null) {
+            try {
+                jenkinsPoller.setPollThreads(Integer.parseInt(pollThreads.trim()));
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value of property jenkins.poll.threads: " + pollThreads, e);
+            }
+        }
+        final long pageCacheBytes;
+        try {
+            pageCacheBytes = (pageCacheSize == null ? DEFAULT_PAGE_CACHE_SIZE : Long.parseLong(pageCacheSize.trim())) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value of property page.cache.size: " + pageCacheSize, e);
+        }
+        pageCache = pageCacheBytes > 0 ? new PageCache(pageCacheBytes) : null;
+        if (pageLimitValue != null) {
+            try {
+                pageLimit = Integer.parseInt(pageLimitValue.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value of property page.limit: " + pageLimitValue, e);
+            }
+        }
+        final long fullPollInterval;
+        try {
+            fullPollInterval = pollInterval == null ? DEFAULT_POLL_INTERVAL : Long.parseLong(pollInterval.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value of property jenkins.poll.interval: " + pollInterval, e);
+        }
+        final long storageSaveInterval;
+        try {
+            storageSaveInterval = saveInterval == null ? DEFAULT_SAVE_INTERVAL : Long.parseLong(saveInterval.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value of property storage.save.interval: " + saveInterval, e);
+        }
+        if (pollWatch) {
+            try {
+                jenkinsPoller.startWatching();
+            } catch (IOException e) {
+                throw new ServletException(e);
+            }
+        }
         timer = new Timer();
         timer.schedule(new TimerTask() {
+            long lastFullPoll = 0;
+            long lastSave = System.currentTimeMillis();
+
             @Override
             public void run() {
                 try {
-                    jenkinsPoller.poll();
+                    long now = System.currentTimeMillis();
+                    if (!pollWatch || now - lastFullPoll >= fullPollInterval) {
+                        /* full scan, also reconciles changes missed by watcher */
+                        jenkinsPoller.poll();
+                        lastFullPoll = now;
+                        Logger.getLogger(ResultsView.class.getName()).log(Level.FINE,
+                                "Poll skipped {0} stat calls of idle jobs and runs", jenkinsPoller.getLastSkippedStats());
+                    } else {
+                        jenkinsPoller.pollChanges();
+                    }
+                    if (storageFile != null && now - lastSave >= storageSaveInterval) {
+                        saveStorage();
+                        lastSave = now;
+                    }
                     initialPollDone = true;
                 } catch (Exception ex) {
                     Logger.getLogger(ResultsView.class.getName()).log(Level.SEVERE, null, ex);
                 }
             }
-        }, 0, 60_000);
+        }, 0, pollWatch ? WATCH_POLL_INTERVAL : fullPollInterval);
+        if (jenkinsPoller.initialBuilds > 0) {
+            /* runs on the same timer thread, so polls get their turn
+               between backfill batches */
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        jenkinsPoller.backfill(BACKFILL_BUILDS);
+                    } catch (Exception ex) {
+                        Logger.getLogger(ResultsView.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            }, BACKFILL_DELAY, BACKFILL_DELAY);
+        }
     }
 
     @Override
     public void destroy() {
         timer.cancel();
         timer = null;
+        if (storageFile != null && initialPollDone) {
+            saveStorage();
+        }
+        jenkinsPoller.shutdown();
+        try {
+            jenkinsPoller.stopWatching();
+        } catch (IOException ex) {
+            Logger.getLogger(ResultsView.class.getName()).log(Level.WARNING, null, ex);
+        }
+        if (logStorage != null) {
+            /* wait for running poll, see saveStorage */
+            synchronized (jenkinsPoller) {
+                try {
+                    logStorage.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(ResultsView.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+            logStorage = null;
+        }
+        eventStorage.close();
+        eventStorage = null;
+        pageCache = null;
         jenkinsPoller = null;
         storage = null;
+        jsonApi = null;
+        storageFile = null;
         initialPollDone = false;
     }
 
-    private String replace(String s, String p, String r) {
-        if (p.length() == 1 && s.indexOf(p.charAt(0)) < 0) {
-            return s;
+    private static StorageInterface createStorage(String storageType) throws ServletException {
+        switch (storageType.trim()) {
+            case "concurrent":
+                return new ConcurrentStorage();
+            case "snapshot":
+                return new SnapshotStorage();
+            case "compact":
+                return new CompactStorage();
+            default:
+                throw new ServletException("Invalid value of property storage.type: " + storageType);
+        }
+    }
+
+    private void saveStorage() {
+        /* poll methods are synchronized on poller, so this waits for poll
+           still running after timer was cancelled */
+        synchronized (jenkinsPoller) {
+            try {
+                StorageFile.save(storage, storageFile);
+            } catch (IOException ex) {
+                Logger.getLogger(ResultsView.class.getName()).log(Level.WARNING, "Failed to save storage file: " + storageFile, ex);
+            }
+        }
+    }
+
+    private static final byte[] PAGE_START = HtmlWriter.bytes("<!DOCTYPE html>\n"
+            + "<html>\n"
+            + "<head>\n"
+            + "<meta charset=\"UTF-8\">\n"
+            + "<title>ResultsView</title>\n"
+            + "<style>\n"
+            /* https://stackoverflow.com/a/14776179 */
+            + "html { display: table; margin: auto; }\n"
+            + "body { display: table-cell; vertical-align: middle; }\n"
+            + "table { border: 1px solid; border-collapse: collapse; }\n"
+            + "th, td { border: 1px solid; padding-left: 1em ; padding-right: 1em ; }\n"
+            + "a { text-decoration: none; }\n"
+            + ".filter-form { padding-top: 0.5em; padding-bottom: 0.5em; }\n"
+            + ".rtxt-success { color: green; }\n"
+            + ".rtxt-unstable { color: orangered; }\n"
+            + ".rtxt-failure { color: purple; }\n"
+            + ".rtxt-aborted { color: gray; }\n"
+            + ".rtxt-running { color: blue; }\n"
+            + "</style>\n"
+            + "</head>\n"
+            + "<body>\n"
+            + "<div>\n");
+    private static final byte[] PAGE_END = HtmlWriter.bytes("<br/>\n</div>\n</body>\n</html>\n");
+    private static final String[] PAGES = {"pkgs", "jobs", "runs"};
+    /* tab bar for each page, last one has no tab selected */
+    private static final byte[][] TAB_BARS = new byte[PAGES.length + 1][];
+    /* indexed by status */
+    private static final byte[][] STATUSES = new byte[Run.NOT_BUILT + 1][];
+    private static final byte[] RUNS_TABLE_START = HtmlWriter.bytes("<table>\n<tr><th>Result</th><th>Name</th></tr>\n");
+    private static final byte[] JOBS_TABLE_START = HtmlWriter.bytes("<table>\n<tr><th>Last Result</th><th>Name</th></tr>\n");
+    private static final byte[] PKGS_TABLE_START = HtmlWriter.bytes("<table>\n<tr><th>Pkg</th><th>Runs</th></tr>\n");
+    private static final byte[] TABLE_END = HtmlWriter.bytes("</table>\n");
+    private static final byte[] ROW_START = HtmlWriter.bytes("<tr><td>");
+    private static final byte[] CELL_SEPARATOR = HtmlWriter.bytes("</td><td>");
+    private static final byte[] LINK_END = HtmlWriter.bytes("</a>");
+    private static final byte[] ROW_END = HtmlWriter.bytes("</a></td></tr>\n");
+
+    static {
+        for (int i = 0; i <= PAGES.length; ++i) {
+            StringBuilder sb = new StringBuilder("<div style=\"text-align: center; background-color: Silver;\">\n");
+            for (int j = 0; j < PAGES.length; ++j) {
+                printPageTab(sb, PAGES[j], i == j);
+            }
+            sb.append("</div>\n");
+            TAB_BARS[i] = HtmlWriter.bytes(sb.toString());
+        }
+        String[] classes = {null, "rtxt-running", null, "rtxt-success", "rtxt-unstable", "rtxt-failure", "rtxt-aborted", "rtxt-aborted"};
+        for (int i = 0; i < STATUSES.length; ++i) {
+            String name = Run.getStatusName(i);
+            STATUSES[i] = HtmlWriter.bytes(classes[i] == null ? name
+                    : "<span class=\"" + classes[i] + "\">" + name + "</span>");
+        }
+    }
+
+    private void printStatus(HtmlWriter out, int status) throws IOException {
+        if (status >= 0 && status < STATUSES.length) {
+            out.raw(STATUSES[status]);
+        }
+    }
+
+    /*
+     * Rows of table in sorted order, read from storage by chunks,
+     * see paging methods of StorageInterface.
+     */
+    private abstract static class Rows<T> {
+
+        abstract List<T> read(T from, boolean before, int limit);
+
+        abstract T parse(String cursor);
+
+        abstract String cursor(T row);
+
+        boolean matches(T row) {
+            return true;
         }
-        return s.replace(p, r);
     }
 
-    private String htmlEscape(String s) {
-        s = replace(s, "&", "&amp;");
-        s = replace(s, "<", "&lt;");
-        s = replace(s, ">", "&gt;");
-        s = replace(s, "\"", "&quot;");
-        s = replace(s, "\'", "&apos;");
-        return s;
+    /* rows of one page and cursors of neighbouring pages (null if there is none) */
+    private static class TablePage<T> {
+
+        final List<T> rows = new ArrayList<>();
+        String prev;
+        String next;
+        int scanned = 0;
+        int matched = 0;
+        boolean allScanned = false;
     }
 
-    private String urlEscape(String s) {
+    /* returns Integer.MAX_VALUE if page is not limited */
+    private int parseLimit(HttpServletRequest request) {
+        int defaultLimit = pageLimit > 0 ? Math.min(MAX_PAGE_LIMIT, pageLimit) : Integer.MAX_VALUE;
+        String limit = request.getParameter("limit");
+        if (limit == null || limit.trim().isEmpty()) {
+            return defaultLimit;
+        }
         try {
-            return URLEncoder.encode(s, "UTF-8");
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return Math.max(1, Math.min(MAX_PAGE_LIMIT, Integer.parseInt(limit.trim())));
+        } catch (NumberFormatException e) {
+            return defaultLimit;
         }
     }
 
-    private void printStatus(PrintWriter out, int status) {
-        switch (status) {
-            case Run.RUNNING:
-                out.println("<span class=\"rtxt-running\">");
-                out.println("RUNNING");
-                out.println("</span>");
-                break;
-            case Run.SUCCESS:
-                out.println("<span class=\"rtxt-success\">");
-                out.println("SUCCESS");
-                out.println("</span>");
-                break;
-            case Run.UNSTABLE:
-                out.println("<span class=\"rtxt-unstable\">");
-                out.println("UNSTABLE");
-                out.println("</span>");
-                break;
-            case Run.FAILURE:
-                out.println("<span class=\"rtxt-failure\">");
-                out.println("FAILURE");
-                out.println("</span>");
-                break;
-            case Run.ABORTED:
-                out.println("<span class=\"rtxt-aborted\">");
-                out.println("ABORTED");
-                out.println("</span>");
-                break;
-            case Run.NOT_BUILT:
-                out.println("<span class=\"rtxt-aborted\">");
-                out.println("NOT_BUILT");
-                out.println("</span>");
-                break;
-            case Run.FINISHED:
-                out.println("FINISHED");
-                break;
-            case Run.UNKNOWN:
-                out.println("UNKNOWN");
+    /*
+     * Reads page starting at cursor or ending before "before" cursor.
+     * Rows before the page are not read, only rows not matching the filter
+     * are skipped, so time depends on size of page, not of whole table.
+     */
+    private <T> TablePage<T> readPage(Rows<T> source, HttpServletRequest request, boolean filtered) {
+        String cursor = request.getParameter("cursor");
+        String before = request.getParameter("before");
+        int limit = parseLimit(request);
+        int chunkSize = Math.min(limit, MAX_PAGE_LIMIT) + 1;
+        if (filtered) {
+            chunkSize = Math.max(chunkSize, FILTERED_CHUNK);
+        }
+        TablePage<T> page = new TablePage<>();
+        if (before != null && !before.isEmpty()) {
+            T to = source.parse(before);
+            boolean more = false;
+            outer:
+            for (;;) {
+                List<T> chunk = source.read(to, true, chunkSize);
+                for (int i = chunk.size() - 1; i >= 0; --i) {
+                    T row = chunk.get(i);
+                    page.scanned++;
+                    if (!source.matches(row)) {
+                        continue;
+                    }
+                    page.matched++;
+                    if (page.rows.size() == limit) {
+                        more = true;
+                        break outer;
+                    }
+                    page.rows.add(row);
+                }
+                if (chunk.size() < chunkSize) {
+                    break;
+                }
+                to = chunk.get(0);
+            }
+            Collections.reverse(page.rows);
+            page.prev = more ? source.cursor(page.rows.get(0)) : null;
+            page.next = before;
+            return page;
+        }
+        T from = cursor == null || cursor.isEmpty() ? null : source.parse(cursor);
+        boolean skipFrom = false;
+        outer:
+        for (;;) {
+            List<T> chunk = source.read(from, false, chunkSize);
+            for (T row : chunk) {
+                if (skipFrom) {
+                    /* last row of previous chunk */
+                    skipFrom = false;
+                    if (row.equals(from)) {
+                        continue;
+                    }
+                }
+                page.scanned++;
+                if (!source.matches(row)) {
+                    continue;
+                }
+                page.matched++;
+                if (page.rows.size() == limit) {
+                    page.next = source.cursor(row);
+                    break outer;
+                }
+                page.rows.add(row);
+            }
+            if (chunk.size() < chunkSize) {
+                page.allScanned = cursor == null || cursor.isEmpty();
                 break;
+            }
+            from = chunk.get(chunk.size() - 1);
+            skipFrom = true;
+        }
+        if (cursor != null && !cursor.isEmpty()) {
+            page.prev = page.rows.isEmpty() ? cursor : source.cursor(page.rows.get(0));
+        }
+        return page;
+    }
+
+    /* rows of list, which is not kept by storage */
+    private static <T> List<T> readList(List<T> list, T from, boolean before, int limit) {
+        int index = from == null ? -1 : list.indexOf(from);
+        if (index < 0) {
+            index = before ? list.size() : 0;
         }
+        return before ? list.subList(Math.max(0, index - limit), index)
+                : list.subList(index, Math.min(list.size(), index + limit));
     }
 
-    private void printRunTable(PrintWriter out, String pkgName, String regex) {
+    private void printPageLinks(HtmlWriter out, HttpServletRequest request, TablePage<?> page, int total,
+            boolean filtered) throws IOException {
+        out.raw("Showing ").number(page.rows.size()).raw(" of ");
+        if (!filtered) {
+            out.number(total);
+        } else if (page.allScanned) {
+            out.number(page.matched).raw(" matching");
+        } else {
+            /* assumes that skipped part of table matches as scanned part */
+            long estimate = page.scanned == 0 ? 0 : Math.round((double) total * page.matched / page.scanned);
+            out.raw("about ").number(Math.max(estimate, page.rows.size())).raw(" matching");
+        }
+        out.raw("\n");
+        if (page.prev != null) {
+            printPageLink(out, request, "before", page.prev, "&lt; prev");
+        }
+        if (page.next != null) {
+            printPageLink(out, request, "cursor", page.next, "next &gt;");
+        }
+        out.raw("<br/>\n");
+    }
+
+    private void printPageLink(HtmlWriter out, HttpServletRequest request, String param, String cursor, String label)
+            throws IOException {
+        out.raw("<a href=\"").text(request.getServletPath().substring(1)).raw("?");
+        for (String name : LINK_PARAMS) {
+            String value = request.getParameter(name);
+            if (value != null && !value.isEmpty()) {
+                out.raw(name).raw("=").url(value).raw("&amp;");
+            }
+        }
+        out.raw(param).raw("=").url(cursor).raw("\">").raw(label).raw("</a>\n");
+    }
+
+    private void printLimitField(HtmlWriter out, HttpServletRequest request) throws IOException {
+        String limit = request.getParameter("limit");
+        if (limit != null && !limit.isEmpty()) {
+            out.raw("<input type=\"hidden\" name=\"limit\" value=\"").text(limit).raw("\"/>\n");
+        }
+    }
+
+    private void printRunTable(HtmlWriter out, HttpServletRequest request, String pkgName, String regex) throws IOException {
         if (pkgName == null || pkgName.isEmpty()) {
             return;
         }
-        Pkg pkg = storage.getPkg(pkgName);
+        final Pkg pkg = storage.getPkg(pkgName);
         if (pkg == null) {
-            out.println("Package not found: " + htmlEscape(pkgName));
+            out.raw("Package not found: ").text(pkgName).raw("\n");
             return;
         }
-        List<Run> runs = new ArrayList<Run>(storage.getPkgRuns(pkg));
-        Collections.sort(runs);
-        out.println("<table>");
-        out.println("<tr>");
-        out.println("<th>Result</th>");
-        out.println("<th>Name</th>");
-        out.println("</tr>");
-        Pattern p = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
-        for (Run run : runs) {
+        Pkg previousPkg = storage.getPreviousPkg(pkg);
+        if (previousPkg != null) {
+            out.raw("Previous: <a href=\"runs?pkg=").url(previousPkg.getStrId())
+                    .raw("&amp;pattern=").url(regex == null ? "" : regex).raw("\">")
+                    .text(previousPkg.getStrId()).raw("</a>\n<br/>\n");
+        }
+        final Pattern p = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
+        TablePage<Run> page = readPage(new Rows<Run>() {
+            @Override
+            List<Run> read(Run from, boolean before, int limit) {
+                return storage.getPkgRuns(pkg, from, before, limit);
+            }
+
+            @Override
+            Run parse(String cursor) {
+                int slash = cursor.indexOf('/');
+                return slash < 0 ? new Run(new Job(cursor), "") : new Run(new Job(cursor.substring(0, slash)), cursor.substring(slash + 1));
+            }
+
+            @Override
+            String cursor(Run run) {
+                return run.getJob().getName() + "/" + run.getName();
+            }
+
+            @Override
+            boolean matches(Run run) {
+                String jobName = run.getJob().getName();
+                return p == null || p.matcher(jobName).find() || p.matcher(jobName + "/" + run.getName()).find();
+            }
+        }, request, p != null);
+        printPageLinks(out, request, page, storage.getPkgRunsCount(pkg), p != null);
+        out.raw(RUNS_TABLE_START);
+        for (Run run : page.rows) {
             String jobName = run.getJob().getName();
             String runName = run.getName();
-            String fullName = jobName + "/" + runName;
-            if (p != null && !p.matcher(jobName).find() && !p.matcher(fullName).find()) {
-                continue;
-            }
-            int status = run.getStatus();
-            out.println("<tr>");
-            out.println("<td>");
-            printStatus(out, status);
-            out.println("</td>");
-            out.println("<td>");
-            out.println("<a href=\"" + jenkinsUrl + "/job/" + urlEscape(jobName) + "/" + urlEscape(runName) + "\">");
-            out.println(htmlEscape(fullName));
-            out.println("</a>");
-            out.println("</td>");
-            out.println("</tr>");
-        }
-        out.println("</table>");
+            out.raw(ROW_START);
+            printStatus(out, run.getStatus());
+            out.raw(CELL_SEPARATOR).raw(jobLinkStart).url(jobName).raw("/").url(runName).raw("\">")
+                    .text(jobName).raw("/").text(runName).raw(ROW_END);
+        }
+        out.raw(TABLE_END);
     }
 
-    private void printRuns(HttpServletRequest request, PrintWriter out) {
+    private void printRuns(HttpServletRequest request, HtmlWriter out) throws IOException {
             final String pkgName = request.getParameter("pkg");
             final String pattern = request.getParameter("pattern");
             final String pkgNameVal = pkgName == null ? "" : pkgName.trim();
             final String patternVal = pattern == null ? "" : pattern;
-            out.println("<form class=\"filter-form\">");
-            out.println("<label for=\"pattern\">Pkg:</label>");
-            out.println("<input type=\"text\" id=\"pkg\" name=\"pkg\" size=\"50\" value=\"" + htmlEscape(pkgNameVal) + "\"/>");
-            out.println("<label for=\"pattern\">Pattern:</label>");
-            out.println("<input type=\"text\" id=\"pattern\" name=\"pattern\" value=\"" + htmlEscape(patternVal) + "\"/>");
-            out.println("<input type=\"submit\" value=\"Submit\"/>");
-            out.println("<br/>");
-            out.println("</form>");
-            printRunTable(out, pkgNameVal, patternVal);
+            out.raw("<form class=\"filter-form\">\n");
+            out.raw("<label for=\"pattern\">Pkg:</label>\n");
+            out.raw("<input type=\"text\" id=\"pkg\" name=\"pkg\" size=\"50\" value=\"").text(pkgNameVal).raw("\"/>\n");
+            out.raw("<label for=\"pattern\">Pattern:</label>\n");
+            out.raw("<input type=\"text\" id=\"pattern\" name=\"pattern\" value=\"").text(patternVal).raw("\"/>\n");
+            printLimitField(out, request);
+            out.raw("<input type=\"submit\" value=\"Submit\"/>\n");
+            out.raw("<br/>\n");
+            out.raw("</form>\n");
+            printRunTable(out, request, pkgNameVal, patternVal);
     }
 
-    private void printJobs(HttpServletRequest request, PrintWriter out) {
+    private void printJobs(HttpServletRequest request, HtmlWriter out) throws IOException {
         final String pattern = request.getParameter("pattern");
         final String patternVal = pattern == null ? "" : pattern;
-        out.println("<form class=\"filter-form\">");
-        out.println("<label for=\"pattern\">Pattern:</label>");
-        out.println("<input type=\"text\" id=\"pattern\" name=\"pattern\" value=\"" + htmlEscape(patternVal) + "\"/>");
-        out.println("<input type=\"submit\" value=\"Submit\"/>");
-        out.println("<br/>");
-        out.println("</form>");
-        List<Job> jobs = new ArrayList<Job>(storage.getJobs());
-        Collections.sort(jobs);
-        out.println("<table>");
-        out.println("<tr>");
-        out.println("<th>Last Result</th>");
-        out.println("<th>Name</th>");
-        out.println("</tr>");
+        out.raw("<form class=\"filter-form\">\n");
+        out.raw("<label for=\"pattern\">Pattern:</label>\n");
+        out.raw("<input type=\"text\" id=\"pattern\" name=\"pattern\" value=\"").text(patternVal).raw("\"/>\n");
+        printLimitField(out, request);
+        out.raw("<input type=\"submit\" value=\"Submit\"/>\n");
+        out.raw("<br/>\n");
+        out.raw("</form>\n");
         String regex = patternVal;
-        Pattern p = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
-        for (Job job : jobs) {
-            String jobName = job.getName();
-            if (p != null && !p.matcher(jobName).find()) {
-                continue;
+        final Pattern p = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
+        TablePage<Job> page = readPage(new Rows<Job>() {
+            @Override
+            List<Job> read(Job from, boolean before, int limit) {
+                return storage.getJobs(from == null ? null : from.getName(), before, limit);
+            }
+
+            @Override
+            Job parse(String cursor) {
+                return new Job(cursor);
+            }
+
+            @Override
+            String cursor(Job job) {
+                return job.getName();
             }
-            out.println("<tr>");
-            out.println("<td>");
+
+            @Override
+            boolean matches(Job job) {
+                return p == null || p.matcher(job.getName()).find();
+            }
+        }, request, p != null);
+        printPageLinks(out, request, page, storage.getJobsCount(), p != null);
+        out.raw(JOBS_TABLE_START);
+        for (Job job : page.rows) {
+            String jobName = job.getName();
+            out.raw(ROW_START);
             Run run = storage.getJobLatestRun(job);
             if (run != null && run.isFinished()) {
                 printStatus(out, run.getStatus());
-            } else {
-                List<Run> runs = new ArrayList<Run>(storage.getJobRuns(job));
-                int runIdx = runs.size() - 1;
-                if (runIdx >= 0) {
-                    Collections.sort(runs);
-                    Run lastrun = runs.get(runIdx);
-                    if (!lastrun.isFinished()) {
-                        if (runIdx > 0) {
-                            --runIdx;
-                        }
-                        lastrun = runs.get(runIdx);
-                    }
-                    printStatus(out, lastrun.getStatus());
-                    out.println("&gt;");
-                }
+            } else if (run != null) {
+                /* latest run is not finished yet, show previous result */
+                Run finishedRun = storage.getJobLatestFinishedRun(job);
+                printStatus(out, (finishedRun != null ? finishedRun : run).getStatus());
+                out.raw(" &gt;");
             }
-            out.println("</td>");
-            out.println("<td>");
-            out.println("<a href=\"" + jenkinsUrl + "/job/" + urlEscape(jobName) + "\">");
-            out.println(htmlEscape(jobName));
-            out.println("</a>");
-            out.println("</td>");
-            out.println("</tr>");
+            out.raw(CELL_SEPARATOR).raw(jobLinkStart).url(jobName).raw("\">").text(jobName).raw(ROW_END);
         }
-        out.println("</table>");
+        out.raw(TABLE_END);
     }
 
-    private void printPkgs(HttpServletRequest request, PrintWriter out) {
+    private void printPkgs(HttpServletRequest request, HtmlWriter out) throws IOException {
         final String pattern = request.getParameter("pattern");
+        final String name = request.getParameter("name");
+        final boolean latest = request.getParameter("latest") != null;
         final String patternVal = pattern == null ? "" : pattern;
-        out.println("<form class=\"filter-form\">");
-        out.println("<label for=\"pattern\">Pattern:</label>");
-        out.println("<input type=\"text\" id=\"pattern\" name=\"pattern\" value=\"" + htmlEscape(patternVal) + "\"/>");
-        out.println("<input type=\"submit\" value=\"Submit\"/>");
-        out.println("<br/>");
-        out.println("</form>");
-        List<Pkg> pkgs = new ArrayList<Pkg>(storage.getPkgs());
-        Collections.sort(pkgs);
-        out.println("<table>");
-        out.println("<tr>");
-        out.println("<th>Pkg</th>");
-        out.println("<th>Runs</th>");
-        out.println("</tr>");
+        final String nameVal = name == null ? "" : name.trim();
+        out.raw("<form class=\"filter-form\">\n");
+        out.raw("<label for=\"name\">Name:</label>\n");
+        out.raw("<input type=\"text\" id=\"name\" name=\"name\" value=\"").text(nameVal).raw("\"/>\n");
+        out.raw("<label for=\"pattern\">Pattern:</label>\n");
+        out.raw("<input type=\"text\" id=\"pattern\" name=\"pattern\" value=\"").text(patternVal).raw("\"/>\n");
+        out.raw("<input type=\"checkbox\" id=\"latest\" name=\"latest\"").raw(latest ? " checked" : "").raw("/>\n");
+        out.raw("<label for=\"latest\">Latest only</label>\n");
+        printLimitField(out, request);
+        out.raw("<input type=\"submit\" value=\"Submit\"/>\n");
+        out.raw("<br/>\n");
+        out.raw("</form>\n");
+        /* name and latest are looked up in index of package names */
+        final List<Pkg> pkgs;
+        if (!nameVal.isEmpty()) {
+            if (latest) {
+                Pkg latestPkg = storage.getLatestPkg(nameVal);
+                pkgs = latestPkg == null ? Collections.<Pkg>emptyList() : Collections.singletonList(latestPkg);
+            } else {
+                pkgs = new ArrayList<>(storage.getNamePkgs(nameVal));
+            }
+        } else if (latest) {
+            pkgs = new ArrayList<>();
+            for (String pkgName : storage.getPkgNames()) {
+                Pkg latestPkg = storage.getLatestPkg(pkgName);
+                if (latestPkg != null) {
+                    pkgs.add(latestPkg);
+                }
+            }
+        } else {
+            pkgs = null;
+        }
         String regex = patternVal;
-        Pattern p = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
-        for (Pkg pkg : pkgs) {
+        final Pattern p = (regex == null || regex.isEmpty()) ? null : Pattern.compile(regex);
+        TablePage<Pkg> page = readPage(new Rows<Pkg>() {
+            @Override
+            List<Pkg> read(Pkg from, boolean before, int limit) {
+                return pkgs == null ? storage.getPkgs(from, before, limit) : readList(pkgs, from, before, limit);
+            }
+
+            @Override
+            Pkg parse(String cursor) {
+                return new Pkg(cursor);
+            }
+
+            @Override
+            String cursor(Pkg pkg) {
+                return pkg.getStrId();
+            }
+
+            @Override
+            boolean matches(Pkg pkg) {
+                return p == null || p.matcher(pkg.getStrId()).find();
+            }
+        }, request, p != null);
+        printPageLinks(out, request, page, pkgs == null ? storage.getPkgsCount() : pkgs.size(), p != null);
+        out.raw(PKGS_TABLE_START);
+        for (Pkg pkg : page.rows) {
             String pkgName = pkg.getStrId();
-            if (p != null && !p.matcher(pkgName).find()) {
-                continue;
-            }
-            out.println("<tr>");
-            out.println("<td>");
-            out.println(htmlEscape(pkgName));
-            out.println("</td>");
-            out.println("<td>");
-            out.println("<a href=\"runs?pkg=" + urlEscape(pkgName) + "\">");
-            out.println(storage.getPkgRunsCount(pkg));
-            out.println("</a>");
-            out.println("</td>");
-            out.println("</tr>");
-        }
-        out.println("</table>");
+            out.raw(ROW_START).text(pkgName).raw(CELL_SEPARATOR).raw("<a href=\"runs?pkg=").url(pkgName).raw("\">")
+                    .number(storage.getPkgRunsCount(pkg)).raw(ROW_END);
+        }
+        out.raw(TABLE_END);
     }
 
-    void printPageTab(PrintWriter out, String name, boolean selected) {
-        out.println("<a href=\"" + name + "\">"
-            + (selected ? "<b>" : "")
-            + name
-            + (selected ? "</b>" : "")
-            + "</a>");
+    static void printPageTab(StringBuilder sb, String name, boolean selected) {
+        sb.append("<a href=\"").append(name).append("\">")
+            .append(selected ? "<b>" : "")
+            .append(name)
+            .append(selected ? "</b>" : "")
+            .append("</a>\n");
     }
 
     /**
@@ -340,58 +774,106 @@ public class ResultsView extends HttpServlet {
      */
     protected void processRequest(final HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        if (request.getServletPath().startsWith("/api/")) {
+            jsonApi.process(request, response);
+            return;
+        }
         response.setContentType("text/html;charset=UTF-8");
-        try (final PrintWriter out = response.getWriter()) {
-            out.println("<!DOCTYPE html>");
-            out.println("<html>");
-            out.println("<head>");
-            out.println("<meta charset=\"UTF-8\">");
-            out.println("<title>ResultsView</title>");
-            out.println("<style>");
-            /* https://stackoverflow.com/a/14776179 */
-            out.println("html { display: table; margin: auto; }");
-            out.println("body { display: table-cell; vertical-align: middle; }");
-            out.println("table { border: 1px solid; border-collapse: collapse; }");
-            out.println("th, td { border: 1px solid; padding-left: 1em ; padding-right: 1em ; }");
-            out.println("a { text-decoration: none; }");
-            out.println(".filter-form { padding-top: 0.5em; padding-bottom: 0.5em; }");
-            out.println(".rtxt-success { color: green; }");
-            out.println(".rtxt-unstable { color: orangered; }");
-            out.println(".rtxt-failure { color: purple; }");
-            out.println(".rtxt-aborted { color: gray; }");
-            out.println(".rtxt-running { color: blue; }");
-            out.println("</style>");
-            out.println("</head>");
-            out.println("<body>");
-            out.println("<div>");
-            out.println("<div style=\"text-align: center; background-color: Silver;\">");
-            String servletPath = request.getServletPath();
-            printPageTab(out, "pkgs", servletPath.equals("/pkgs"));
-            printPageTab(out, "jobs", servletPath.equals("/jobs"));
-            printPageTab(out, "runs", servletPath.equals("/runs"));
-            out.println("</div>");
-            if (!initialPollDone) {
-                out.println("Initial poll in progress...");
-            }
-            switch (servletPath) {
-                case "/jobs":
-                    printJobs(request, out);
-                    break;
-                case "/runs":
-                    printRuns(request, out);
-                    break;
-                case "/pkgs":
-                    printPkgs(request, out);
-                    break;
-                default:
-                    out.println("Unexpected servlet path: " + servletPath);
-                    break;
+        /* progress of initial poll changes without change of generation */
+        if (pageCache == null || !initialPollDone || jenkinsPoller.getBuildsRemaining() > 0) {
+            try (HtmlWriter out = new HtmlWriter(response.getOutputStream())) {
+                printPage(request, out);
+            }
+            return;
+        }
+        long generation = eventStorage.getGeneration();
+        String etag = "\"" + instanceId + "-" + generation + "\"";
+        response.setHeader("ETag", etag);
+        /* clients have to revalidate, which is cheap */
+        response.setHeader("Cache-Control", "no-cache");
+        if (etagMatches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        String key = pageKey(request);
+        byte[] page = pageCache.get(key, generation);
+        if (page == null) {
+            /* storage may change while rendering, page is then newer
+               than generation, it is replaced after next change */
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (HtmlWriter out = new HtmlWriter(bytes)) {
+                printPage(request, out);
+            }
+            page = bytes.toByteArray();
+            pageCache.put(key, generation, page);
+        }
+        response.setContentLength(page.length);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(page);
+        }
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* servlet path and parameters, which affect the page */
+    /* built from the same values, which are used to render the page:
+       parameters as they are and parsed limit */
+    private String pageKey(HttpServletRequest request) {
+        StringBuilder sb = new StringBuilder(request.getServletPath());
+        for (String param : PAGE_PARAMS) {
+            String value = request.getParameter(param);
+            sb.append('\0');
+            if (value != null) {
+                sb.append(value);
             }
-            out.println("<br/>");
-            out.println("</div>");
-            out.println("</body>");
-            out.println("</html>");
         }
+        sb.append('\0').append(parseLimit(request));
+        /* latest is a checkbox, only presence matters */
+        sb.append('\0').append(request.getParameter("latest") != null);
+        return sb.toString();
+    }
+
+    private void printPage(HttpServletRequest request, HtmlWriter out) throws IOException {
+        out.raw(PAGE_START);
+        String servletPath = request.getServletPath();
+        int page = 0;
+        while (page < PAGES.length && !servletPath.equals("/" + PAGES[page])) {
+            ++page;
+        }
+        out.raw(TAB_BARS[page]);
+        long buildsRemaining = jenkinsPoller.getBuildsRemaining();
+        if (!initialPollDone || buildsRemaining > 0) {
+            out.raw("Initial poll in progress: ").number(jenkinsPoller.getJobsScanned()).raw(" of ")
+                    .number(storage.getJobs().size()).raw(" jobs scanned, ")
+                    .number(jenkinsPoller.getBuildsIngested()).raw(" builds ingested, ")
+                    .number(buildsRemaining).raw(" older builds remaining\n");
+        }
+        switch (servletPath) {
+            case "/jobs":
+                printJobs(request, out);
+                break;
+            case "/runs":
+                printRuns(request, out);
+                break;
+            case "/pkgs":
+                printPkgs(request, out);
+                break;
+            default:
+                out.raw("Unexpected servlet path: ").text(servletPath).raw("\n");
+                break;
+        }
+        out.raw(PAGE_END);
     }
 
     // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps recent batches of changes delivered by {@link EventStorage}, so
+ * clients can ask for changes since generation they already have, instead
+ * of reading whole storage again. History is bounded by number of events,
+ * changes since older generation are not available (full resync is needed).
+ */
+public class ChangeLog implements StorageListener {
+
+    private final int maxEvents;
+    private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+    private int eventCount = 0;
+    /* history contains all batches newer than this generation */
+    private long oldest;
+    /* generation of last delivered batch */
+    private long latest;
+
+    /**
+     * @param generation current generation of storage, listener has to be
+     * added before next change
+     * @param maxEvents max. number of events kept
+     */
+    public ChangeLog(long generation, int maxEvents) {
+        this.maxEvents = maxEvents;
+        this.oldest = generation;
+        this.latest = generation;
+    }
+
+    @Override
+    public synchronized void storageChanged(long generation, List<StorageEvent> events) {
+        batches.addLast(new Batch(generation, events));
+        eventCount += events.size();
+        latest = generation;
+        /* latest batch is kept even if it is bigger */
+        while (eventCount > maxEvents && batches.size() > 1) {
+            Batch batch = batches.removeFirst();
+            eventCount -= batch.events.size();
+            oldest = batch.generation;
+        }
+    }
+
+    public synchronized long getGeneration() {
+        return latest;
+    }
+
+    /**
+     * Changes after given generation up to the latest one.
+     *
+     * @param since generation client has
+     * @return changes, null if they are not available (generation too old
+     * or unknown)
+     */
+    public synchronized Changes getChangesSince(long since) {
+        if (since < oldest || since > latest) {
+            return null;
+        }
+        if (since == latest) {
+            return new Changes(latest, Collections.<StorageEvent>emptyList());
+        }
+        /* clients usually ask for recent changes, find start from the end */
+        Iterator<Batch> it = batches.descendingIterator();
+        List<Batch> newer = new ArrayList<>();
+        int count = 0;
+        while (it.hasNext()) {
+            Batch batch = it.next();
+            if (batch.generation <= since) {
+                break;
+            }
+            newer.add(batch);
+            count += batch.events.size();
+        }
+        List<StorageEvent> events = new ArrayList<>(count);
+        for (int i = newer.size() - 1; i >= 0; --i) {
+            events.addAll(newer.get(i).events);
+        }
+        return new Changes(latest, events);
+    }
+
+    public static class Changes {
+
+        final long generation;
+        final List<StorageEvent> events;
+
+        Changes(long generation, List<StorageEvent> events) {
+            this.generation = generation;
+            this.events = events;
+        }
+
+        /* generation after the changes */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /* changes in order, in which they were done */
+        public List<StorageEvent> getEvents() {
+            return events;
+        }
+    }
+
+    private static class Batch {
+
+        final long generation;
+        final List<StorageEvent> events;
+
+        Batch(long generation, List<StorageEvent> events) {
+            this.generation = generation;
+            this.events = events;
+        }
+    }
+
+}
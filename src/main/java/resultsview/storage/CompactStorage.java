@@ -0,0 +1,1003 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Storage, which keeps runs of job in sorted primitive arrays (build number,
+ * status, modification time) instead of Run objects and runs of pkg as sorted
+ * arrays of (job id, build number) pairs. Run objects are created when runs
+ * are read, except for unfinished runs, which are kept, because poller
+ * updates them. Runs with names, which are not plain numbers, are kept
+ * as objects. Uses read-write lock like {@link ConcurrentStorage}.
+ */
+public class CompactStorage implements StorageInterface {
+
+    /* flag in status: run was added to pkg, but not stored to job yet */
+    private static final int UNSTORED = 0x40;
+    private static final int STATUS_MASK = 0x3F;
+    private static final int NO_PKG = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final SortedMap<String, Job> jobs = new TreeMap<>();
+    private final Map<Job, JobRuns> jobsRuns = new HashMap<>();
+    private final Ids<JobRuns> jobIds = new Ids<>();
+
+    private final Map<String, Pkg> pkgs = new HashMap<>();
+    private final SortedSet<Pkg> sortedPkgs = new TreeSet<>();
+    private final SortedMap<String, SortedSet<Pkg>> namesPkgs = new TreeMap<>();
+    private final Map<Pkg, PkgRuns> pkgsRuns = new HashMap<>();
+    private final Ids<PkgRuns> pkgIds = new Ids<>();
+
+    private final Map<Job, Run> jobsLatestRun = new HashMap<>();
+    private final Map<Job, Run> jobsLatestFinishedRun = new HashMap<>();
+    private final Map<Run, Run> unfinishedRuns = new HashMap<>();
+
+    /* runs, which cannot be stored in arrays */
+    private final Storage otherRuns = new Storage();
+
+    static boolean isCompact(Run run) {
+        long number = run.getNumber();
+        /* "01" is not the same run as "1" */
+        return number >= 0 && number <= Integer.MAX_VALUE
+                && (run.getName().charAt(0) != '0' || number == 0 && run.getName().length() == 1);
+    }
+
+    private static long pkgRunKey(int jobId, int number) {
+        return ((long) jobId << 32) | number;
+    }
+
+    private JobRuns getJobRuns(Job job, boolean create) {
+        JobRuns runs = jobsRuns.get(job);
+        if (runs == null && create) {
+            runs = new JobRuns(job);
+            runs.id = jobIds.add(runs);
+            jobsRuns.put(job, runs);
+        }
+        return runs;
+    }
+
+    private PkgRuns getPkgRuns(Pkg pkg, boolean create) {
+        PkgRuns runs = pkgsRuns.get(pkg);
+        if (runs == null && create) {
+            runs = new PkgRuns();
+            runs.id = pkgIds.add(runs);
+            pkgsRuns.put(pkg, runs);
+        }
+        return runs;
+    }
+
+    private Run toRun(JobRuns runs, int index) {
+        Run run = new Run(runs.job, Integer.toString(runs.numbers[index]));
+        Run unfinishedRun = unfinishedRuns.get(run);
+        if (unfinishedRun != null) {
+            return unfinishedRun;
+        }
+        run.setStatus(runs.statuses[index] & STATUS_MASK);
+        run.modifTime = runs.modifTimes[index];
+        return run;
+    }
+
+    /* copies state of run object to arrays */
+    private void updateRun(Run run) {
+        if (!isCompact(run)) {
+            return;
+        }
+        JobRuns runs = jobsRuns.get(run.getJob());
+        int index = runs == null ? -1 : runs.indexOf((int) run.getNumber());
+        if (index >= 0) {
+            runs.statuses[index] = (byte) ((runs.statuses[index] & UNSTORED) | (run.getStatus() & STATUS_MASK));
+            runs.modifTimes[index] = run.modifTime;
+        }
+    }
+
+    private List<Run> getJobRunsLocked(Job job) {
+        List<Run> list = new ArrayList<>();
+        JobRuns runs = jobsRuns.get(job);
+        if (runs != null) {
+            for (int i = 0; i < runs.size; ++i) {
+                if ((runs.statuses[i] & UNSTORED) == 0) {
+                    list.add(toRun(runs, i));
+                }
+            }
+        }
+        Collection<Run> others = otherRuns.getJobRuns(job);
+        if (!others.isEmpty()) {
+            list.addAll(others);
+            Collections.sort(list);
+        }
+        return list;
+    }
+
+    /* returns pkgs, which run belonged to */
+    private List<PkgRuns> removeRunPkgs(JobRuns runs, int index) {
+        List<PkgRuns> removedFrom = new ArrayList<>(1);
+        int number = runs.numbers[index];
+        long key = pkgRunKey(runs.id, number);
+        if (runs.pkgIds[index] != NO_PKG) {
+            removedFrom.add(pkgIds.get(runs.pkgIds[index]));
+        }
+        if (runs.morePkgIds != null) {
+            int[] more = runs.morePkgIds.remove(number);
+            if (more != null) {
+                for (int pkgId : more) {
+                    removedFrom.add(pkgIds.get(pkgId));
+                }
+            }
+        }
+        for (PkgRuns pkgRuns : removedFrom) {
+            pkgRuns.remove(key);
+        }
+        return removedFrom;
+    }
+
+    private void removePkgIfEmpty(Pkg pkg) {
+        PkgRuns runs = pkgsRuns.get(pkg);
+        if ((runs == null || runs.size == 0) && otherRuns.getPkgRunsCount(pkg) == 0) {
+            if (runs != null) {
+                pkgsRuns.remove(pkg);
+                pkgIds.remove(runs.id);
+            }
+            otherRuns.pkgsRuns.remove(pkg);
+            Pkg storedPkg = pkgs.remove(pkg.getStrId());
+            if (storedPkg != null) {
+                sortedPkgs.remove(storedPkg);
+                removeNamePkg(storedPkg);
+            }
+        }
+    }
+
+    private void removeNamePkg(Pkg pkg) {
+        Set<Pkg> namePkgs = namesPkgs.get(pkg.getName());
+        if (namePkgs != null && namePkgs.remove(pkg) && namePkgs.isEmpty()) {
+            namesPkgs.remove(pkg.getName());
+        }
+    }
+
+    @Override
+    public Job getJob(String name) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return jobs.get(name);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Pkg getPkg(String name) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return pkgs.get(name);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Job> getJobs() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return new ArrayList<>(jobs.values());
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Pkg> getPkgs() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return new ArrayList<>(sortedPkgs);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Run> getJobRuns(Job job) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return getJobRunsLocked(job);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Run> getPkgRuns(Pkg pkg) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return getPkgRunsLocked(pkg);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    private List<Run> getPkgRunsLocked(Pkg pkg) {
+        List<Run> list = new ArrayList<>();
+        PkgRuns runs = pkgsRuns.get(pkg);
+        if (runs != null) {
+            for (int i = 0; i < runs.size; ++i) {
+                long key = runs.keys[i];
+                JobRuns jobRuns = jobIds.get((int) (key >>> 32));
+                list.add(toRun(jobRuns, jobRuns.indexOf((int) key)));
+            }
+        }
+        list.addAll(otherRuns.getPkgRuns(pkg));
+        /* keys are ordered by job id, not by job name */
+        Collections.sort(list);
+        return list;
+    }
+
+    @Override
+    public Collection<Pkg> getRunPkgs(Run run) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            if (!isCompact(run)) {
+                return otherRuns.getRunPkgs(run);
+            }
+            List<Pkg> list = new ArrayList<>(1);
+            JobRuns runs = jobsRuns.get(run.getJob());
+            int number = (int) run.getNumber();
+            int index = runs == null ? -1 : runs.indexOf(number);
+            if (index < 0) {
+                return list;
+            }
+            if (runs.pkgIds[index] != NO_PKG) {
+                list.add(pkgIds.get(runs.pkgIds[index]).pkg);
+            }
+            int[] more = runs.morePkgIds == null ? null : runs.morePkgIds.get(number);
+            if (more != null) {
+                for (int pkgId : more) {
+                    list.add(pkgIds.get(pkgId).pkg);
+                }
+            }
+            return list;
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public int getPkgRunsCount(Pkg pkg) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            PkgRuns runs = pkgsRuns.get(pkg);
+            return (runs == null ? 0 : runs.size) + otherRuns.getPkgRunsCount(pkg);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Job> getJobs(String from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return Storage.page(jobs, from, before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return Storage.page(sortedPkgs, from, before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            List<Run> page = new ArrayList<>();
+            PkgRuns runs = pkgsRuns.get(pkg);
+            if (runs != null) {
+                pagePkgRuns(runs, from, before, limit, page);
+            }
+            return mergePage(page, otherRuns.getPkgRuns(pkg, from, before, limit), before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            List<Run> page = new ArrayList<>();
+            JobRuns runs = jobsRuns.get(job);
+            if (runs != null) {
+                int start = 0;
+                int end = runs.size;
+                if (from != null) {
+                    int cmp = job.compareTo(from.getJob());
+                    int index = cmp < 0 ? end : cmp > 0 ? 0 : lowerBound(runs, from);
+                    if (before) {
+                        end = index;
+                    } else {
+                        start = index;
+                    }
+                }
+                if (before) {
+                    for (int i = end - 1; i >= start && page.size() < limit; --i) {
+                        if ((runs.statuses[i] & UNSTORED) == 0) {
+                            page.add(toRun(runs, i));
+                        }
+                    }
+                    Collections.reverse(page);
+                } else {
+                    for (int i = start; i < end && page.size() < limit; ++i) {
+                        if ((runs.statuses[i] & UNSTORED) == 0) {
+                            page.add(toRun(runs, i));
+                        }
+                    }
+                }
+            }
+            return mergePage(page, otherRuns.getJobRuns(job, from, before, limit), before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    /* merges sorted page of compact runs with page of other runs */
+    private static List<Run> mergePage(List<Run> page, List<Run> other, boolean before, int limit) {
+        if (other.isEmpty()) {
+            return page;
+        }
+        page.addAll(other);
+        Collections.sort(page);
+        return new ArrayList<>(before ? page.subList(Math.max(0, page.size() - limit), page.size())
+                : page.subList(0, Math.min(page.size(), limit)));
+    }
+
+    /*
+     * Adds page of compact runs of pkg to list in order of runs. Keys are
+     * ordered by job id and build number, so runs of each job form sorted
+     * range of keys, ranges are visited in order of jobs and only runs
+     * of the page are created.
+     */
+    private void pagePkgRuns(PkgRuns runs, Run from, boolean before, int limit, List<Run> page) {
+        List<JobRuns> pkgJobs = new ArrayList<>();
+        for (int i = 0; i < runs.size; i = jobKeysEnd(runs, i)) {
+            pkgJobs.add(jobIds.get((int) (runs.keys[i] >>> 32)));
+        }
+        Collections.sort(pkgJobs, new Comparator<JobRuns>() {
+            @Override
+            public int compare(JobRuns t, JobRuns t1) {
+                return t.job.compareTo(t1.job);
+            }
+        });
+        if (before) {
+            Collections.reverse(pkgJobs);
+        }
+        for (JobRuns jobRuns : pkgJobs) {
+            int cmp = from == null ? 0 : jobRuns.job.compareTo(from.getJob());
+            if (before ? cmp > 0 : cmp < 0) {
+                continue;
+            }
+            int start = jobKeysStart(runs, jobRuns.id);
+            int end = jobKeysEnd(runs, start);
+            if (from != null && cmp == 0) {
+                int index = lowerBound(runs, start, end, from);
+                if (before) {
+                    end = index;
+                } else {
+                    start = index;
+                }
+            }
+            if (before) {
+                for (int i = end - 1; i >= start && page.size() < limit; --i) {
+                    page.add(toRun(jobRuns, jobRuns.indexOf((int) runs.keys[i])));
+                }
+            } else {
+                for (int i = start; i < end && page.size() < limit; ++i) {
+                    page.add(toRun(jobRuns, jobRuns.indexOf((int) runs.keys[i])));
+                }
+            }
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        if (before) {
+            Collections.reverse(page);
+        }
+    }
+
+    private static int jobKeysStart(PkgRuns runs, int jobId) {
+        int index = Arrays.binarySearch(runs.keys, 0, runs.size, pkgRunKey(jobId, 0));
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /* end of range of keys of job, whose key is at index */
+    private static int jobKeysEnd(PkgRuns runs, int index) {
+        return jobKeysStart(runs, (int) (runs.keys[index] >>> 32) + 1);
+    }
+
+    /* index of first key in range of keys of run's job, whose run is
+       not before given run */
+    private static int lowerBound(PkgRuns runs, int start, int end, Run run) {
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            if (compareNumber((int) runs.keys[mid], run) < 0) {
+                start = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return start;
+    }
+
+    /* index of first run of job, which is not before given run of job */
+    private static int lowerBound(JobRuns runs, Run run) {
+        int start = 0;
+        int end = runs.size;
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            if (compareNumber(runs.numbers[mid], run) < 0) {
+                start = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return start;
+    }
+
+    /* compares run with given build number with run of the same job,
+       which does not have to be compact */
+    private static int compareNumber(int number, Run run) {
+        return new Run(run.getJob(), Integer.toString(number)).compareTo(run);
+    }
+
+    @Override
+    public int getJobsCount() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return jobs.size();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public int getPkgsCount() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return sortedPkgs.size();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<String> getPkgNames() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return new ArrayList<>(namesPkgs.keySet());
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Pkg> getNamePkgs(String name) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            Set<Pkg> namePkgs = namesPkgs.get(name);
+            return namePkgs != null ? new ArrayList<Pkg>(namePkgs) : Collections.<Pkg>emptyList();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Pkg getLatestPkg(String name) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            SortedSet<Pkg> namePkgs = namesPkgs.get(name);
+            return namePkgs != null ? namePkgs.last() : null;
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Pkg getPreviousPkg(Pkg pkg) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            SortedSet<Pkg> namePkgs = namesPkgs.get(pkg.getName());
+            if (namePkgs == null) {
+                return null;
+            }
+            SortedSet<Pkg> olderPkgs = namePkgs.headSet(pkg);
+            return olderPkgs.isEmpty() ? null : olderPkgs.last();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public void removeJob(String name) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            Job removedJob = jobs.remove(name);
+            Set<Pkg> runPkgs = new HashSet<>();
+            Job otherJob = otherRuns.getJob(name);
+            if (otherJob != null) {
+                for (Run run : otherRuns.getJobRuns(otherJob)) {
+                    Set<Pkg> otherPkgs = otherRuns.runsPkgs.get(run);
+                    if (otherPkgs != null) {
+                        runPkgs.addAll(otherPkgs);
+                    }
+                }
+            }
+            otherRuns.removeJob(name);
+            if (removedJob == null) {
+                for (Pkg pkg : runPkgs) {
+                    removePkgIfEmpty(pkg);
+                }
+                return;
+            }
+            jobsLatestRun.remove(removedJob);
+            jobsLatestFinishedRun.remove(removedJob);
+            JobRuns runs = jobsRuns.remove(removedJob);
+            if (runs != null) {
+                for (int i = 0; i < runs.size; ++i) {
+                    for (PkgRuns pkgRuns : removeRunPkgs(runs, i)) {
+                        runPkgs.add(pkgRuns.pkg);
+                    }
+                }
+                jobIds.remove(runs.id);
+            }
+            for (Pkg pkg : runPkgs) {
+                removePkgIfEmpty(pkg);
+            }
+            for (Iterator<Run> it = unfinishedRuns.keySet().iterator(); it.hasNext();) {
+                if (it.next().getJob().equals(removedJob)) {
+                    it.remove();
+                }
+            }
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public void storeJob(Job job) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            jobs.put(job.getName(), job);
+            otherRuns.storeJob(job);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public void storePkg(Pkg pkg) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            Pkg oldPkg = pkgs.put(pkg.getStrId(), pkg);
+            if (oldPkg != null) {
+                sortedPkgs.remove(oldPkg);
+                removeNamePkg(oldPkg);
+            }
+            sortedPkgs.add(pkg);
+            SortedSet<Pkg> namePkgs = namesPkgs.get(pkg.getName());
+            if (namePkgs == null) {
+                namePkgs = new TreeSet<>(Pkg.VERSION_ORDER);
+                namesPkgs.put(pkg.getName(), namePkgs);
+            }
+            namePkgs.add(pkg);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public void storeRun(Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            if (!isCompact(run)) {
+                otherRuns.storeRun(run);
+                return;
+            }
+            JobRuns runs = getJobRuns(run.getJob(), true);
+            int index = runs.insert((int) run.getNumber());
+            runs.statuses[index] = (byte) (run.getStatus() & STATUS_MASK);
+            runs.modifTimes[index] = run.modifTime;
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeRun(Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            Job job = run.getJob();
+            List<Pkg> runPkgs = new ArrayList<>();
+            if (isCompact(run)) {
+                JobRuns runs = jobsRuns.get(job);
+                int index = runs == null ? -1 : runs.indexOf((int) run.getNumber());
+                if (index < 0 || (runs.statuses[index] & UNSTORED) != 0) {
+                    return false;
+                }
+                List<PkgRuns> removedFrom = removeRunPkgs(runs, index);
+                runs.remove(index);
+                for (PkgRuns pkgRuns : removedFrom) {
+                    runPkgs.add(pkgRuns.pkg);
+                }
+            } else {
+                Set<Pkg> otherPkgs = otherRuns.runsPkgs.get(run);
+                if (!otherRuns.removeRun(run)) {
+                    return false;
+                }
+                if (otherPkgs != null) {
+                    runPkgs.addAll(otherPkgs);
+                }
+            }
+            for (Pkg pkg : runPkgs) {
+                removePkgIfEmpty(pkg);
+            }
+            unfinishedRuns.remove(run);
+            Run latestRun = jobsLatestRun.get(job);
+            Run latestFinishedRun = jobsLatestFinishedRun.get(job);
+            boolean latestRemoved = latestRun != null && latestRun.equals(run);
+            boolean latestFinishedRemoved = latestFinishedRun != null && latestFinishedRun.equals(run);
+            if (latestRemoved || latestFinishedRemoved) {
+                List<Run> remaining = getJobRunsLocked(job);
+                if (latestRemoved) {
+                    if (remaining.isEmpty()) {
+                        jobsLatestRun.remove(job);
+                    } else {
+                        jobsLatestRun.put(job, remaining.get(remaining.size() - 1));
+                    }
+                }
+                if (latestFinishedRemoved) {
+                    jobsLatestFinishedRun.remove(job);
+                    for (int i = remaining.size() - 1; i >= 0; --i) {
+                        if (remaining.get(i).isFinished()) {
+                            jobsLatestFinishedRun.put(job, remaining.get(i));
+                            break;
+                        }
+                    }
+                }
+            }
+            return true;
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public void addPkgRun(Pkg pkg, Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            if (!isCompact(run)) {
+                otherRuns.addPkgRun(pkg, run);
+                return;
+            }
+            JobRuns runs = getJobRuns(run.getJob(), true);
+            int number = (int) run.getNumber();
+            int index = runs.indexOf(number);
+            if (index < 0) {
+                index = runs.insert(number);
+                runs.statuses[index] = (byte) (UNSTORED | (run.getStatus() & STATUS_MASK));
+                runs.modifTimes[index] = run.modifTime;
+            } else {
+                updateRun(run);
+            }
+            PkgRuns pkgRuns = getPkgRuns(pkg, true);
+            if (pkgRuns.pkg == null) {
+                pkgRuns.pkg = pkg;
+            }
+            if (pkgRuns.add(pkgRunKey(runs.id, number))) {
+                runs.addPkg(index, pkgRuns.id);
+            }
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public Run getJobLatestRun(Job job) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return jobsLatestRun.get(job);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public void setJobLatestRun(Job job, Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            jobsLatestRun.put(job, run);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public Run getJobLatestFinishedRun(Job job) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return jobsLatestFinishedRun.get(job);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public void setJobLatestFinishedRun(Job job, Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            jobsLatestFinishedRun.put(job, run);
+            updateRun(run);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public void addUnfinishedRun(Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            unfinishedRuns.put(run, run);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public void removeUnfinishedRun(Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            unfinishedRuns.remove(run);
+            /* run is not kept any more, arrays need its final state */
+            updateRun(run);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Run> getUnfinishedRuns() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return new HashSet<>(unfinishedRuns.keySet());
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public void beginUpdate() {
+    }
+
+    @Override
+    public void endUpdate() {
+    }
+
+    /*
+     * Runs of job sorted by build number, as parallel arrays.
+     */
+    static final class JobRuns {
+
+        final Job job;
+        int id;
+        int size = 0;
+        int[] numbers = new int[4];
+        byte[] statuses = new byte[4];
+        long[] modifTimes = new long[4];
+        /* first pkg of run, usually the only one */
+        int[] pkgIds = new int[4];
+        /* other pkgs of runs by build number, null if there are none */
+        Map<Integer, int[]> morePkgIds = null;
+
+        JobRuns(Job job) {
+            this.job = job;
+        }
+
+        int indexOf(int number) {
+            return Arrays.binarySearch(numbers, 0, size, number);
+        }
+
+        /* returns index of existing or inserted run */
+        int insert(int number) {
+            int index;
+            /* builds are mostly added in ascending order */
+            if (size == 0 || numbers[size - 1] < number) {
+                index = size;
+            } else {
+                index = indexOf(number);
+                if (index >= 0) {
+                    return index;
+                }
+                index = -index - 1;
+            }
+            if (size == numbers.length) {
+                int capacity = size + (size >> 1) + 1;
+                numbers = Arrays.copyOf(numbers, capacity);
+                statuses = Arrays.copyOf(statuses, capacity);
+                modifTimes = Arrays.copyOf(modifTimes, capacity);
+                pkgIds = Arrays.copyOf(pkgIds, capacity);
+            }
+            int moved = size - index;
+            System.arraycopy(numbers, index, numbers, index + 1, moved);
+            System.arraycopy(statuses, index, statuses, index + 1, moved);
+            System.arraycopy(modifTimes, index, modifTimes, index + 1, moved);
+            System.arraycopy(pkgIds, index, pkgIds, index + 1, moved);
+            numbers[index] = number;
+            statuses[index] = 0;
+            modifTimes[index] = Long.MIN_VALUE;
+            pkgIds[index] = NO_PKG;
+            ++size;
+            return index;
+        }
+
+        void remove(int index) {
+            int moved = size - index - 1;
+            System.arraycopy(numbers, index + 1, numbers, index, moved);
+            System.arraycopy(statuses, index + 1, statuses, index, moved);
+            System.arraycopy(modifTimes, index + 1, modifTimes, index, moved);
+            System.arraycopy(pkgIds, index + 1, pkgIds, index, moved);
+            --size;
+        }
+
+        void addPkg(int index, int pkgId) {
+            if (pkgIds[index] == NO_PKG) {
+                pkgIds[index] = pkgId;
+                return;
+            }
+            if (morePkgIds == null) {
+                morePkgIds = new HashMap<>();
+            }
+            int[] more = morePkgIds.get(numbers[index]);
+            more = more == null ? new int[1] : Arrays.copyOf(more, more.length + 1);
+            more[more.length - 1] = pkgId;
+            morePkgIds.put(numbers[index], more);
+        }
+    }
+
+    /*
+     * Runs of pkg as sorted array of (job id, build number) keys.
+     */
+    static final class PkgRuns {
+
+        Pkg pkg;
+        int id;
+        int size = 0;
+        long[] keys = new long[2];
+
+        boolean add(long key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size + (size >> 1) + 1);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            keys[index] = key;
+            ++size;
+            return true;
+        }
+
+        void remove(long key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index >= 0) {
+                System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+                --size;
+            }
+        }
+    }
+
+    /*
+     * Assigns small int ids to objects, ids of removed objects are reused.
+     */
+    static final class Ids<T> {
+
+        private final List<T> items = new ArrayList<>();
+        private final Deque<Integer> free = new ArrayDeque<>();
+
+        int add(T item) {
+            Integer id = free.poll();
+            if (id == null) {
+                items.add(item);
+                return items.size() - 1;
+            }
+            items.set(id, item);
+            return id;
+        }
+
+        T get(int id) {
+            return items.get(id);
+        }
+
+        void remove(int id) {
+            items.set(id, null);
+            free.push(id);
+        }
+    }
+
+}
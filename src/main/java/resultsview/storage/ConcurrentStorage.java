@@ -24,6 +24,7 @@
 package resultsview.storage;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -97,6 +98,17 @@ public class ConcurrentStorage extends Storage {
         }
     }
 
+    @Override
+    public Collection<Pkg> getRunPkgs(Run run) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getRunPkgs(run);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
     @Override
     public int getPkgRunsCount(Pkg pkg) {
         Lock rlock = lock.readLock();
@@ -108,6 +120,116 @@ public class ConcurrentStorage extends Storage {
         }
     }
 
+    @Override
+    public List<Job> getJobs(String from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getJobs(from, before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getPkgs(from, before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getPkgRuns(pkg, from, before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getJobRuns(job, from, before, limit);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public int getJobsCount() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getJobsCount();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public int getPkgsCount() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getPkgsCount();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<String> getPkgNames() {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getPkgNames();
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Pkg> getNamePkgs(String name) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getNamePkgs(name);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Pkg getLatestPkg(String name) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getLatestPkg(name);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public Pkg getPreviousPkg(Pkg pkg) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getPreviousPkg(pkg);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
     @Override
     public void removeJob(String name) {
         Lock wlock = lock.writeLock();
@@ -119,6 +241,17 @@ public class ConcurrentStorage extends Storage {
         }
     }
 
+    @Override
+    public boolean removeRun(Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            return super.removeRun(run);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
     @Override
     public void storeJob(Job job) {
         Lock wlock = lock.writeLock();
@@ -185,6 +318,28 @@ public class ConcurrentStorage extends Storage {
         }
     }
 
+    @Override
+    public Run getJobLatestFinishedRun(Job job) {
+        Lock rlock = lock.readLock();
+        rlock.lock();
+        try {
+            return super.getJobLatestFinishedRun(job);
+        } finally {
+            rlock.unlock();
+        }
+    }
+
+    @Override
+    public void setJobLatestFinishedRun(Job job, Run run) {
+        Lock wlock = lock.writeLock();
+        wlock.lock();
+        try {
+            super.setJobLatestFinishedRun(job, run);
+        } finally {
+            wlock.unlock();
+        }
+    }
+
     @Override
     public void addUnfinishedRun(Run run) {
         Lock wlock = lock.writeLock();
@@ -0,0 +1,484 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage, which reports changes of other storage to listeners. Changes
+ * done in single update batch (e.g. one poll) are collected and, at the end
+ * of the batch, generation is incremented and changes are delivered
+ * to listeners by background thread, so that listeners do not slow down
+ * the poller. Batches without changes do not change generation.
+ * <p>
+ * Events of batch are ordered as changes were done, except for
+ * PKG_RUN_ADDED and LATEST_(FINISHED_)RUN_CHANGED events, which refer
+ * to run not stored in the batch yet. Poller adds pkgs of new run and
+ * sets it as latest finished run before it stores the run, so these
+ * events are held until RUN_ADDED event of the run, or until the end
+ * of the batch for runs stored before. Latest run changes done by
+ * removal of run and PKG_REMOVED events of pkgs left without runs
+ * follow RUN_REMOVED event. Removal of job is reported as removal
+ * of all its runs followed by JOB_REMOVED event.
+ */
+public class EventStorage implements StorageInterface, Closeable {
+
+    private final StorageInterface storage;
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private final List<StorageListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService notifier;
+    /* changes of current batch, guarded by updateLock */
+    private List<StorageEvent> batch = new ArrayList<>();
+    /* events waiting for RUN_ADDED event of their run and runs added
+       by current batch, guarded by updateLock */
+    private final Map<Run, List<StorageEvent>> pendingEvents = new LinkedHashMap<>();
+    private final Set<Run> addedRuns = new HashSet<>();
+    private volatile long generation = 0;
+
+    public EventStorage(StorageInterface storage) {
+        this.storage = storage;
+        notifier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "storage-events");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /* number of update batches, which changed storage */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void addListener(StorageListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StorageListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void beginUpdate() {
+        updateLock.lock();
+        storage.beginUpdate();
+    }
+
+    @Override
+    public void endUpdate() {
+        try {
+            try {
+                storage.endUpdate();
+            } finally {
+                if (updateLock.getHoldCount() == 1) {
+                    publish();
+                }
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /* called after inner storage published the batch */
+    private void publish() {
+        for (List<StorageEvent> events : pendingEvents.values()) {
+            batch.addAll(events);
+        }
+        pendingEvents.clear();
+        addedRuns.clear();
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<StorageEvent> events = Collections.unmodifiableList(batch);
+        final long batchGeneration = ++generation;
+        batch = new ArrayList<>();
+        if (listeners.isEmpty()) {
+            return;
+        }
+        notifier.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (StorageListener listener : listeners) {
+                    try {
+                        listener.storageChanged(batchGeneration, events);
+                    } catch (RuntimeException e) {
+                        Logger.getLogger(EventStorage.class.getName()).log(Level.WARNING, "Storage listener failed", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void event(StorageEvent.Type type, Job job, Run run, Pkg pkg) {
+        batch.add(new StorageEvent(type, job, run, pkg));
+    }
+
+    /* event, which is held if run was not added by current batch */
+    private void runEvent(StorageEvent.Type type, Job job, Run run, Pkg pkg) {
+        if (run == null || addedRuns.contains(run)) {
+            event(type, job, run, pkg);
+            return;
+        }
+        List<StorageEvent> events = pendingEvents.get(run);
+        if (events == null) {
+            events = new ArrayList<>();
+            pendingEvents.put(run, events);
+        }
+        events.add(new StorageEvent(type, job, run, pkg));
+    }
+
+    private void flushEvents(Run run) {
+        List<StorageEvent> events = pendingEvents.remove(run);
+        if (events != null) {
+            batch.addAll(events);
+        }
+    }
+
+    /* events of runs set as latest are held like other events of run,
+       runs, which become latest by removal, are stored already */
+    private void latestChanged(Job job, Run oldLatestRun, Run oldLatestFinishedRun, boolean hold) {
+        Run latestRun = storage.getJobLatestRun(job);
+        if (!Objects.equals(oldLatestRun, latestRun)) {
+            latestEvent(StorageEvent.Type.LATEST_RUN_CHANGED, job, latestRun, hold);
+        }
+        Run latestFinishedRun = storage.getJobLatestFinishedRun(job);
+        if (!Objects.equals(oldLatestFinishedRun, latestFinishedRun)) {
+            latestEvent(StorageEvent.Type.LATEST_FINISHED_RUN_CHANGED, job, latestFinishedRun, hold);
+        }
+    }
+
+    private void latestEvent(StorageEvent.Type type, Job job, Run run, boolean hold) {
+        if (hold) {
+            runEvent(type, job, run, null);
+        } else {
+            event(type, job, run, null);
+        }
+    }
+
+    /* pkgs left without runs are removed with the runs */
+    private void pkgsRemoved(Job job, Collection<Pkg> runPkgs) {
+        for (Pkg pkg : runPkgs) {
+            if (storage.getPkg(pkg.getStrId()) == null) {
+                event(StorageEvent.Type.PKG_REMOVED, job, null, pkg);
+            }
+        }
+    }
+
+    /**
+     * Waits for delivery of pending changes and stops the delivery thread.
+     */
+    @Override
+    public void close() {
+        notifier.shutdown();
+        try {
+            notifier.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Job getJob(String name) {
+        return storage.getJob(name);
+    }
+
+    @Override
+    public Pkg getPkg(String name) {
+        return storage.getPkg(name);
+    }
+
+    @Override
+    public Collection<Job> getJobs() {
+        return storage.getJobs();
+    }
+
+    @Override
+    public Collection<Pkg> getPkgs() {
+        return storage.getPkgs();
+    }
+
+    @Override
+    public Collection<Run> getJobRuns(Job job) {
+        return storage.getJobRuns(job);
+    }
+
+    @Override
+    public Collection<Run> getPkgRuns(Pkg pkg) {
+        return storage.getPkgRuns(pkg);
+    }
+
+    @Override
+    public int getPkgRunsCount(Pkg pkg) {
+        return storage.getPkgRunsCount(pkg);
+    }
+
+    @Override
+    public Collection<Pkg> getRunPkgs(Run run) {
+        return storage.getRunPkgs(run);
+    }
+
+    @Override
+    public List<Job> getJobs(String from, boolean before, int limit) {
+        return storage.getJobs(from, before, limit);
+    }
+
+    @Override
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+        return storage.getPkgs(from, before, limit);
+    }
+
+    @Override
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+        return storage.getPkgRuns(pkg, from, before, limit);
+    }
+
+    @Override
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+        return storage.getJobRuns(job, from, before, limit);
+    }
+
+    @Override
+    public int getJobsCount() {
+        return storage.getJobsCount();
+    }
+
+    @Override
+    public int getPkgsCount() {
+        return storage.getPkgsCount();
+    }
+
+    @Override
+    public Collection<String> getPkgNames() {
+        return storage.getPkgNames();
+    }
+
+    @Override
+    public Collection<Pkg> getNamePkgs(String name) {
+        return storage.getNamePkgs(name);
+    }
+
+    @Override
+    public Pkg getLatestPkg(String name) {
+        return storage.getLatestPkg(name);
+    }
+
+    @Override
+    public Pkg getPreviousPkg(Pkg pkg) {
+        return storage.getPreviousPkg(pkg);
+    }
+
+    @Override
+    public Run getJobLatestRun(Job job) {
+        return storage.getJobLatestRun(job);
+    }
+
+    @Override
+    public Run getJobLatestFinishedRun(Job job) {
+        return storage.getJobLatestFinishedRun(job);
+    }
+
+    @Override
+    public Collection<Run> getUnfinishedRuns() {
+        return storage.getUnfinishedRuns();
+    }
+
+    @Override
+    public void removeJob(String name) {
+        beginUpdate();
+        try {
+            Job job = storage.getJob(name);
+            if (job == null) {
+                storage.removeJob(name);
+                return;
+            }
+            Run latestRun = storage.getJobLatestRun(job);
+            Run latestFinishedRun = storage.getJobLatestFinishedRun(job);
+            List<Run> runs = new ArrayList<>(storage.getJobRuns(job));
+            Set<Pkg> runsPkgs = new LinkedHashSet<>();
+            for (Run run : runs) {
+                runsPkgs.addAll(storage.getRunPkgs(run));
+            }
+            storage.removeJob(name);
+            Iterator<Map.Entry<Run, List<StorageEvent>>> it = pendingEvents.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Run, List<StorageEvent>> entry = it.next();
+                if (entry.getKey().getJob().equals(job)) {
+                    batch.addAll(entry.getValue());
+                    it.remove();
+                }
+            }
+            /* runs of job are reported as removed same way as by removeRun */
+            for (Run run : runs) {
+                addedRuns.remove(run);
+                event(StorageEvent.Type.RUN_REMOVED, job, run, null);
+            }
+            latestChanged(job, latestRun, latestFinishedRun, false);
+            pkgsRemoved(job, runsPkgs);
+            event(StorageEvent.Type.JOB_REMOVED, job, null, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storeJob(Job job) {
+        beginUpdate();
+        try {
+            boolean added = storage.getJob(job.getName()) == null;
+            storage.storeJob(job);
+            if (added) {
+                event(StorageEvent.Type.JOB_ADDED, job, null, null);
+            }
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storePkg(Pkg pkg) {
+        beginUpdate();
+        try {
+            storage.storePkg(pkg);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storeRun(Run run) {
+        beginUpdate();
+        try {
+            storage.storeRun(run);
+            event(StorageEvent.Type.RUN_ADDED, run.getJob(), run, null);
+            addedRuns.add(run);
+            flushEvents(run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public boolean removeRun(Run run) {
+        beginUpdate();
+        try {
+            Job job = run.getJob();
+            Run latestRun = storage.getJobLatestRun(job);
+            Run latestFinishedRun = storage.getJobLatestFinishedRun(job);
+            Collection<Pkg> runPkgs = storage.getRunPkgs(run);
+            if (!storage.removeRun(run)) {
+                return false;
+            }
+            flushEvents(run);
+            addedRuns.remove(run);
+            event(StorageEvent.Type.RUN_REMOVED, job, run, null);
+            latestChanged(job, latestRun, latestFinishedRun, false);
+            pkgsRemoved(job, runPkgs);
+            return true;
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void addPkgRun(Pkg pkg, Run run) {
+        beginUpdate();
+        try {
+            storage.addPkgRun(pkg, run);
+            runEvent(StorageEvent.Type.PKG_RUN_ADDED, run.getJob(), run, pkg);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void setJobLatestRun(Job job, Run run) {
+        beginUpdate();
+        try {
+            Run latestRun = storage.getJobLatestRun(job);
+            Run latestFinishedRun = storage.getJobLatestFinishedRun(job);
+            storage.setJobLatestRun(job, run);
+            latestChanged(job, latestRun, latestFinishedRun, true);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void setJobLatestFinishedRun(Job job, Run run) {
+        beginUpdate();
+        try {
+            Run latestRun = storage.getJobLatestRun(job);
+            Run latestFinishedRun = storage.getJobLatestFinishedRun(job);
+            storage.setJobLatestFinishedRun(job, run);
+            latestChanged(job, latestRun, latestFinishedRun, true);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void addUnfinishedRun(Run run) {
+        beginUpdate();
+        try {
+            storage.addUnfinishedRun(run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void removeUnfinishedRun(Run run) {
+        beginUpdate();
+        try {
+            storage.removeUnfinishedRun(run);
+            /* poller updates run in place, unfinished run is removed
+               when it finishes */
+            event(StorageEvent.Type.RUN_STATUS_CHANGED, run.getJob(), run, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+}
@@ -27,6 +27,8 @@ public class Job implements Comparable<Job> {
 
     final String name;
     public long modifTime = Long.MIN_VALUE;
+    /* highest build number seen in builds dir, -1 = not scanned yet */
+    public long lastBuildNumber = -1;
     // pollMtime
     // pollSz
 
@@ -43,7 +45,7 @@ public class Job implements Comparable<Job> {
         if (this == o) {
             return true;
         }
-        if (getClass() != o.getClass()) {
+        if (o == null || getClass() != o.getClass()) {
             return false;
         }
         Job o1 = (Job) o;
@@ -0,0 +1,733 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Storage, which makes changes of other storage durable. Every change is
+ * appended to log file, changes done in single update batch are written
+ * and synced together at the end of the batch, so crash loses at most
+ * the last batch. When log grows over {@link #compactSize}, content
+ * of storage is written to checkpoint file (see {@link StorageFile})
+ * in background and log is replaced by new empty one. On construction,
+ * checkpoint is loaded and log is replayed.
+ * <p>
+ * Log starts with header holding checksum of checkpoint it follows.
+ * Compaction renames new checkpoint over old one first and then renames
+ * new log over old one, so files are never changed in place. Log, which
+ * does not match checkpoint, is older than checkpoint and its content
+ * is already contained in checkpoint, so it is not replayed.
+ */
+public class LogStorage implements StorageInterface, Closeable {
+
+    public static final long DEFAULT_COMPACT_SIZE = 16 * 1024 * 1024;
+
+    private static final byte STORE_JOB = 1;
+    private static final byte STORE_PKG = 2;
+    private static final byte STORE_RUN = 3;
+    private static final byte ADD_PKG_RUN = 4;
+    private static final byte SET_LATEST_RUN = 5;
+    private static final byte SET_LATEST_FINISHED_RUN = 6;
+    private static final byte ADD_UNFINISHED_RUN = 7;
+    private static final byte REMOVE_UNFINISHED_RUN = 8;
+    private static final byte REMOVE_JOB = 9;
+    private static final byte REMOVE_RUN = 10;
+    private static final byte LOG_HEADER = 11;
+
+    /* checkpoint id, when there is no checkpoint */
+    private static final long NO_CHECKPOINT = -1;
+
+    /* log size, after which checkpoint is written */
+    public long compactSize = DEFAULT_COMPACT_SIZE;
+
+    private final StorageInterface storage;
+    private final Path checkpointFile;
+    private final Path logFile;
+    private final Path newLogFile;
+    private FileChannel log;
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private final DataOutputStream batchOut = new DataOutputStream(batch);
+    private final ExecutorService compactor;
+    private long logSize;
+    private boolean compactPending = false;
+    /* log does not match checkpoint, so batches cannot be appended */
+    private boolean logStale = false;
+
+    /**
+     * Creates log storage, content of checkpoint and log found in directory
+     * is loaded into storage.
+     *
+     * @param storage empty storage, which holds the data
+     * @param dir directory for checkpoint and log files
+     * @throws IOException on error
+     */
+    public LogStorage(StorageInterface storage, Path dir) throws IOException {
+        this.storage = storage;
+        Files.createDirectories(dir);
+        checkpointFile = dir.resolve("checkpoint");
+        logFile = dir.resolve("log");
+        newLogFile = dir.resolve("log.tmp");
+        /* log is opened before checkpoint is loaded, compaction replaces
+           checkpoint before log, so opened log is never newer than
+           loaded checkpoint */
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long checkpointId = NO_CHECKPOINT;
+            if (Files.exists(checkpointFile)) {
+                checkpointId = StorageFile.loadChecked(checkpointFile, storage);
+            }
+            logSize = replay(checkpointId);
+            if (logSize < 0) {
+                /* log is covered by checkpoint, it is replaced by
+                   compaction after first batch, so that files are not
+                   changed here */
+                logStale = true;
+                logSize = 0;
+            } else if (logSize == 0) {
+                log.truncate(0);
+                writeHeader(log, checkpointId);
+                StorageFile.syncDirectory(logFile);
+                logSize = log.size();
+            } else {
+                /* drop torn batch at the end of log, if any */
+                log.truncate(logSize);
+                log.position(logSize);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "storage-compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /* returns length of valid part of the log or -1, if log does not
+       follow given checkpoint or has no header */
+    private long replay(long checkpointId) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) log.size());
+        while (buffer.hasRemaining() && log.read(buffer, buffer.position()) > 0) {
+            /* reads whole log */
+        }
+        byte[] data = buffer.array();
+        Replay replay = new Replay();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        long validSize = 0;
+        storage.beginUpdate();
+        try {
+            while (true) {
+                byte[] records;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || length > data.length) {
+                        break;
+                    }
+                    records = new byte[length];
+                    in.readFully(records);
+                    if (in.readInt() != checksum(records, length)) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (validSize == 0) {
+                    /* log without matching header is not replayed */
+                    if (records.length != 9 || records[0] != LOG_HEADER) {
+                        return -1;
+                    }
+                    long logCheckpointId = new DataInputStream(new ByteArrayInputStream(records, 1, 8)).readLong();
+                    if (logCheckpointId != checkpointId) {
+                        return -1;
+                    }
+                } else {
+                    replay.apply(records);
+                }
+                validSize += records.length + 8;
+            }
+        } finally {
+            storage.endUpdate();
+        }
+        return validSize;
+    }
+
+    private static int checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer frame(byte[] records) {
+        int length = records.length;
+        ByteBuffer buffer = ByteBuffer.allocate(length + 8);
+        buffer.putInt(length);
+        buffer.put(records);
+        buffer.putInt(checksum(records, length));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeHeader(FileChannel channel, long checkpointId) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeByte(LOG_HEADER);
+        out.writeLong(checkpointId);
+        ByteBuffer buffer = frame(header.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(true);
+    }
+
+    /* creates new log following given checkpoint and renames it over
+       current log, current log is not changed */
+    private void replaceLog(long checkpointId) throws IOException {
+        FileChannel newLog = FileChannel.open(newLogFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            writeHeader(newLog, checkpointId);
+            Files.move(newLogFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            StorageFile.syncDirectory(logFile);
+        } catch (IOException | RuntimeException e) {
+            newLog.close();
+            throw e;
+        }
+        log.close();
+        log = newLog;
+        logSize = newLog.size();
+    }
+
+    @Override
+    public void beginUpdate() {
+        updateLock.lock();
+        storage.beginUpdate();
+    }
+
+    @Override
+    public void endUpdate() {
+        try {
+            try {
+                if (updateLock.getHoldCount() == 1) {
+                    flush();
+                }
+            } finally {
+                storage.endUpdate();
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void flush() {
+        if (batch.size() == 0) {
+            return;
+        }
+        byte[] records = batch.toByteArray();
+        int length = records.length;
+        ByteBuffer buffer = frame(records);
+        batch.reset();
+        if (logStale) {
+            /* log does not match checkpoint, batch is not durable until
+               compaction writes checkpoint, which contains it */
+            scheduleCompaction();
+            return;
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+            logSize += length + 8;
+        } catch (IOException e) {
+            /* batch is missing in log, checkpoint will contain it */
+            try {
+                log.truncate(logSize);
+                log.position(logSize);
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            scheduleCompaction();
+            throw new UncheckedIOException(e);
+        }
+        if (logSize > compactSize) {
+            scheduleCompaction();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactPending) {
+            return;
+        }
+        compactPending = true;
+        compactor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    /* will be retried after next batch */
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes content of storage to checkpoint and replaces the log by
+     * empty one. Blocks updates while running.
+     *
+     * @throws IOException on error
+     */
+    public void compact() throws IOException {
+        updateLock.lock();
+        try {
+            compactPending = false;
+            /* checkpoint is durably in place before log is replaced,
+               otherwise crash could leave new log next to old checkpoint */
+            long checkpointId = StorageFile.saveChecked(storage, checkpointFile);
+            /* until log is replaced, batches cannot be appended to it,
+               as they would be skipped on recovery */
+            logStale = true;
+            replaceLog(checkpointId);
+            logStale = false;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Writes checkpoint and closes the log.
+     *
+     * @throws IOException on error
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            compact();
+        } finally {
+            log.close();
+        }
+    }
+
+    long getLogSize() {
+        return logSize;
+    }
+
+    private void writeJob(Job job) throws IOException {
+        batchOut.writeUTF(job.getName());
+        batchOut.writeLong(job.modifTime);
+        batchOut.writeLong(job.lastBuildNumber);
+    }
+
+    /* current state of run is written with every reference, as status
+       and modification time are changed on run directly */
+    private void writeRun(Run run) throws IOException {
+        writeJob(run.getJob());
+        batchOut.writeUTF(run.getName());
+        batchOut.writeByte(run.getStatus());
+        batchOut.writeLong(run.modifTime);
+    }
+
+    private void record(byte op, Job job, Run run, String name) {
+        try {
+            batchOut.writeByte(op);
+            if (job != null) {
+                writeJob(job);
+            }
+            if (run != null) {
+                writeRun(run);
+            }
+            if (name != null) {
+                batchOut.writeUTF(name);
+            }
+        } catch (IOException e) {
+            /* ByteArrayOutputStream does not throw */
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Job getJob(String name) {
+        return storage.getJob(name);
+    }
+
+    @Override
+    public Pkg getPkg(String name) {
+        return storage.getPkg(name);
+    }
+
+    @Override
+    public Collection<Job> getJobs() {
+        return storage.getJobs();
+    }
+
+    @Override
+    public Collection<Pkg> getPkgs() {
+        return storage.getPkgs();
+    }
+
+    @Override
+    public Collection<Run> getJobRuns(Job job) {
+        return storage.getJobRuns(job);
+    }
+
+    @Override
+    public Collection<Run> getPkgRuns(Pkg pkg) {
+        return storage.getPkgRuns(pkg);
+    }
+
+    @Override
+    public int getPkgRunsCount(Pkg pkg) {
+        return storage.getPkgRunsCount(pkg);
+    }
+
+    @Override
+    public Collection<Pkg> getRunPkgs(Run run) {
+        return storage.getRunPkgs(run);
+    }
+
+    @Override
+    public List<Job> getJobs(String from, boolean before, int limit) {
+        return storage.getJobs(from, before, limit);
+    }
+
+    @Override
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+        return storage.getPkgs(from, before, limit);
+    }
+
+    @Override
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+        return storage.getPkgRuns(pkg, from, before, limit);
+    }
+
+    @Override
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+        return storage.getJobRuns(job, from, before, limit);
+    }
+
+    @Override
+    public int getJobsCount() {
+        return storage.getJobsCount();
+    }
+
+    @Override
+    public int getPkgsCount() {
+        return storage.getPkgsCount();
+    }
+
+    @Override
+    public Collection<String> getPkgNames() {
+        return storage.getPkgNames();
+    }
+
+    @Override
+    public Collection<Pkg> getNamePkgs(String name) {
+        return storage.getNamePkgs(name);
+    }
+
+    @Override
+    public Pkg getLatestPkg(String name) {
+        return storage.getLatestPkg(name);
+    }
+
+    @Override
+    public Pkg getPreviousPkg(Pkg pkg) {
+        return storage.getPreviousPkg(pkg);
+    }
+
+    @Override
+    public Run getJobLatestRun(Job job) {
+        return storage.getJobLatestRun(job);
+    }
+
+    @Override
+    public Run getJobLatestFinishedRun(Job job) {
+        return storage.getJobLatestFinishedRun(job);
+    }
+
+    @Override
+    public Collection<Run> getUnfinishedRuns() {
+        return storage.getUnfinishedRuns();
+    }
+
+    @Override
+    public void removeJob(String name) {
+        beginUpdate();
+        try {
+            storage.removeJob(name);
+            record(REMOVE_JOB, null, null, name);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storeJob(Job job) {
+        beginUpdate();
+        try {
+            storage.storeJob(job);
+            record(STORE_JOB, job, null, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storePkg(Pkg pkg) {
+        beginUpdate();
+        try {
+            storage.storePkg(pkg);
+            record(STORE_PKG, null, null, pkg.getStrId());
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storeRun(Run run) {
+        beginUpdate();
+        try {
+            storage.storeRun(run);
+            record(STORE_RUN, null, run, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public boolean removeRun(Run run) {
+        beginUpdate();
+        try {
+            if (!storage.removeRun(run)) {
+                return false;
+            }
+            record(REMOVE_RUN, null, run, null);
+            return true;
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void addPkgRun(Pkg pkg, Run run) {
+        beginUpdate();
+        try {
+            storage.addPkgRun(pkg, run);
+            record(ADD_PKG_RUN, null, run, pkg.getStrId());
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void setJobLatestRun(Job job, Run run) {
+        beginUpdate();
+        try {
+            storage.setJobLatestRun(job, run);
+            record(SET_LATEST_RUN, job, run, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void setJobLatestFinishedRun(Job job, Run run) {
+        beginUpdate();
+        try {
+            storage.setJobLatestFinishedRun(job, run);
+            record(SET_LATEST_FINISHED_RUN, job, run, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void addUnfinishedRun(Run run) {
+        beginUpdate();
+        try {
+            storage.addUnfinishedRun(run);
+            record(ADD_UNFINISHED_RUN, null, run, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void removeUnfinishedRun(Run run) {
+        beginUpdate();
+        try {
+            storage.removeUnfinishedRun(run);
+            record(REMOVE_UNFINISHED_RUN, null, run, null);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /*
+     * Applies logged changes to storage. Objects already present in storage
+     * are reused, so replaying log over checkpoint, which already contains
+     * its changes (crash during compaction), gives same result.
+     */
+    private class Replay {
+
+        private final Map<Job, Map<String, Run>> jobsRuns = new HashMap<>();
+
+        void apply(byte[] records) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                switch (op) {
+                    case STORE_JOB:
+                        readJob(in);
+                        break;
+                    case STORE_PKG:
+                        readPkg(in);
+                        break;
+                    case STORE_RUN:
+                        storage.storeRun(readRun(in));
+                        break;
+                    case ADD_PKG_RUN: {
+                        Run run = readRun(in);
+                        storage.addPkgRun(readPkg(in), run);
+                        break;
+                    }
+                    case SET_LATEST_RUN: {
+                        Job job = readJob(in);
+                        storage.setJobLatestRun(job, readRun(in));
+                        break;
+                    }
+                    case SET_LATEST_FINISHED_RUN: {
+                        Job job = readJob(in);
+                        storage.setJobLatestFinishedRun(job, readRun(in));
+                        break;
+                    }
+                    case ADD_UNFINISHED_RUN:
+                        storage.addUnfinishedRun(readRun(in));
+                        break;
+                    case REMOVE_UNFINISHED_RUN:
+                        storage.removeUnfinishedRun(readRun(in));
+                        break;
+                    case REMOVE_RUN: {
+                        Run run = readRun(in);
+                        jobsRuns.get(run.getJob()).remove(run.getName());
+                        storage.removeRun(run);
+                        break;
+                    }
+                    case REMOVE_JOB: {
+                        String name = in.readUTF();
+                        Job job = storage.getJob(name);
+                        if (job != null) {
+                            jobsRuns.remove(job);
+                            storage.removeJob(name);
+                        }
+                        break;
+                    }
+                    default:
+                        throw new IOException("Invalid log record: " + op);
+                }
+            }
+        }
+
+        private Job readJob(DataInputStream in) throws IOException {
+            String name = in.readUTF();
+            Job job = storage.getJob(name);
+            if (job == null) {
+                job = new Job(name);
+                storage.storeJob(job);
+            }
+            job.modifTime = in.readLong();
+            job.lastBuildNumber = in.readLong();
+            return job;
+        }
+
+        private Pkg readPkg(DataInputStream in) throws IOException {
+            String strId = in.readUTF();
+            Pkg pkg = storage.getPkg(strId);
+            if (pkg == null) {
+                pkg = new Pkg(strId);
+                storage.storePkg(pkg);
+            }
+            return pkg;
+        }
+
+        private Run readRun(DataInputStream in) throws IOException {
+            Job job = readJob(in);
+            Map<String, Run> runs = jobsRuns.get(job);
+            if (runs == null) {
+                runs = new HashMap<>();
+                for (Run run : storage.getJobRuns(job)) {
+                    runs.put(run.getName(), run);
+                }
+                jobsRuns.put(job, runs);
+            }
+            String name = in.readUTF();
+            Run run = runs.get(name);
+            if (run == null) {
+                /* run may be referenced (addPkgRun) before it is stored */
+                run = new Run(job, name);
+                runs.put(name, run);
+            }
+            run.setStatus(in.readByte());
+            run.modifTime = in.readLong();
+            return run;
+        }
+
+    }
+
+}
@@ -22,14 +22,41 @@
  * THE SOFTWARE.
  */
 package resultsview.storage;
+import java.util.Comparator;
 import resultsview.common.VersionUtil;
 
 public class Pkg implements Comparable<Pkg> {
 
     String strId;
+    /* parts of name-version-release, version and release are empty
+       if strId does not have them */
+    private String name;
+    private String version;
+    private String release;
+    /* computed when needed, see VersionUtil.versionSortKey */
+    private String sortKey;
+
+    /* orders pkgs of the same name from oldest to newest */
+    public static final Comparator<Pkg> VERSION_ORDER = new Comparator<Pkg>() {
+        @Override
+        public int compare(Pkg p1, Pkg p2) {
+            int res = VersionUtil.versionCompare(p1.version, p2.version);
+            if (res == 0) {
+                res = VersionUtil.versionCompare(p1.release, p2.release);
+            }
+            return res != 0 ? res : p1.strId.compareTo(p2.strId);
+        }
+    };
 
     public Pkg(String strId) {
-        this.strId = strId;
+        setStrId(strId);
+    }
+
+    public Pkg(String name, String version, String release) {
+        this.strId = name + "-" + version + "-" + release;
+        this.name = name;
+        this.version = version;
+        this.release = release;
     }
 
     public String getStrId() {
@@ -38,6 +65,40 @@ public class Pkg implements Comparable<Pkg> {
 
     public void setStrId(String strId) {
         this.strId = strId;
+        this.sortKey = null;
+        /* version and release cannot contain '-', name can */
+        int releaseIndex = strId.lastIndexOf('-');
+        int versionIndex = releaseIndex <= 0 ? -1 : strId.lastIndexOf('-', releaseIndex - 1);
+        if (versionIndex <= 0) {
+            name = strId;
+            version = "";
+            release = "";
+        } else {
+            name = strId.substring(0, versionIndex);
+            version = strId.substring(versionIndex + 1, releaseIndex);
+            release = strId.substring(releaseIndex + 1);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getRelease() {
+        return release;
+    }
+
+    public String getSortKey() {
+        String key = sortKey;
+        if (key == null) {
+            key = VersionUtil.versionSortKey(strId);
+            sortKey = key;
+        }
+        return key;
     }
 
     @Override
@@ -45,7 +106,7 @@ public class Pkg implements Comparable<Pkg> {
         if (this == o) {
             return true;
         }
-        if (getClass() != o.getClass()) {
+        if (o == null || getClass() != o.getClass()) {
             return false;
         }
         Pkg o1 = (Pkg) o;
@@ -62,7 +123,9 @@ public class Pkg implements Comparable<Pkg> {
 
     @Override
     public int compareTo(Pkg t) {
-        return VersionUtil.versionCompare(this.strId, t.strId);
+        int res = getSortKey().compareTo(t.getSortKey());
+        /* e.g. "a-01" and "a-1", compareTo has to be consistent with equals */
+        return res != 0 ? res : strId.compareTo(t.strId);
     }
 
 }
@@ -29,6 +29,8 @@ public class Run  implements Comparable<Run> {
 
     final Job job;
     final String name;
+    /* name as number for fast compare, -1 if it is not a number */
+    final long number;
     int status;
     public long modifTime = Long.MIN_VALUE;
 
@@ -41,9 +43,15 @@ public class Run  implements Comparable<Run> {
     public static final int ABORTED = 6;
     public static final int NOT_BUILT = 7;
 
+    /* indexed by status */
+    private static final String[] STATUS_NAMES = {
+        "UNKNOWN", "RUNNING", "FINISHED", "SUCCESS", "UNSTABLE", "FAILURE", "ABORTED", "NOT_BUILT"
+    };
+
     public Run(Job job, String name) {
         this.job = job;
         this.name = name;
+        this.number = VersionUtil.parseNumber(name);
     }
 
     public Job getJob() {
@@ -54,6 +62,11 @@ public class Run  implements Comparable<Run> {
         return name;
     }
 
+    /* build number, -1 if name is not a number */
+    public long getNumber() {
+        return number;
+    }
+
     public int getStatus() {
         return status;
     }
@@ -62,6 +75,20 @@ public class Run  implements Comparable<Run> {
         this.status = status;
     }
 
+    public static String getStatusName(int status) {
+        return status >= 0 && status < STATUS_NAMES.length ? STATUS_NAMES[status] : STATUS_NAMES[UNKNOWN];
+    }
+
+    /* status for name as returned by getStatusName, -1 if name is not known */
+    public static int parseStatus(String name) {
+        for (int i = 0; i < STATUS_NAMES.length; ++i) {
+            if (STATUS_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public boolean isFinished() {
         switch(status) {
             case FINISHED:
@@ -80,7 +107,7 @@ public class Run  implements Comparable<Run> {
         if (this == o) {
             return true;
         }
-        if (getClass() != o.getClass()) {
+        if (o == null || getClass() != o.getClass()) {
             return false;
         }
         Run o1 = (Run) o;
@@ -101,7 +128,16 @@ public class Run  implements Comparable<Run> {
     @Override
     public int compareTo(Run t) {
         int res = job.compareTo(t.job);
-        return res != 0 ? res : VersionUtil.versionCompare(this.name, t.name);
+        if (res != 0) {
+            return res;
+        }
+        if (number >= 0 && t.number >= 0) {
+            res = Long.compare(number, t.number);
+        } else {
+            res = VersionUtil.versionCompare(this.name, t.name);
+        }
+        /* e.g. "01" and "1", compareTo has to be consistent with equals */
+        return res != 0 ? res : name.compareTo(t.name);
     }
 
 }
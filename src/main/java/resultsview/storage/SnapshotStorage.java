@@ -0,0 +1,739 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage, where readers do not lock. Changes are done by single thread
+ * to private copy of data and published as immutable snapshot at the end
+ * of each update batch. Collections returned to readers are not copied,
+ * they are read-only views of the snapshot. Thread doing update sees its
+ * own unpublished changes. Unfinished runs, which poller changes in place,
+ * are copied to snapshot. Job objects are shared, their fields are state
+ * of poller, not part of the snapshot.
+ */
+public class SnapshotStorage implements StorageInterface {
+
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private final TrackingStorage writer = new TrackingStorage();
+    private volatile Thread updatingThread = null;
+    private volatile Snapshot published = new Snapshot();
+
+    private StorageInterface view() {
+        return Thread.currentThread() == updatingThread ? writer : published;
+    }
+
+    @Override
+    public void beginUpdate() {
+        updateLock.lock();
+        updatingThread = Thread.currentThread();
+    }
+
+    @Override
+    public void endUpdate() {
+        try {
+            if (updateLock.getHoldCount() == 1) {
+                /* marks storage dirty, if unfinished run was changed in place */
+                Map<Run, Run> frozenRuns = writer.freezeUnfinishedRuns(published.frozenRuns);
+                if (writer.isDirty()) {
+                    published = new Snapshot(writer, published, frozenRuns);
+                    writer.clearDirty();
+                }
+                updatingThread = null;
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public Job getJob(String name) {
+        return view().getJob(name);
+    }
+
+    @Override
+    public Pkg getPkg(String name) {
+        return view().getPkg(name);
+    }
+
+    @Override
+    public Collection<Job> getJobs() {
+        return view().getJobs();
+    }
+
+    @Override
+    public Collection<Pkg> getPkgs() {
+        return view().getPkgs();
+    }
+
+    @Override
+    public Collection<Run> getJobRuns(Job job) {
+        return view().getJobRuns(job);
+    }
+
+    @Override
+    public Collection<Run> getPkgRuns(Pkg pkg) {
+        return view().getPkgRuns(pkg);
+    }
+
+    @Override
+    public int getPkgRunsCount(Pkg pkg) {
+        return view().getPkgRunsCount(pkg);
+    }
+
+    @Override
+    public Collection<Pkg> getRunPkgs(Run run) {
+        return view().getRunPkgs(run);
+    }
+
+    @Override
+    public List<Job> getJobs(String from, boolean before, int limit) {
+        return view().getJobs(from, before, limit);
+    }
+
+    @Override
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+        return view().getPkgs(from, before, limit);
+    }
+
+    @Override
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+        return view().getPkgRuns(pkg, from, before, limit);
+    }
+
+    @Override
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+        return view().getJobRuns(job, from, before, limit);
+    }
+
+    @Override
+    public int getJobsCount() {
+        return view().getJobsCount();
+    }
+
+    @Override
+    public int getPkgsCount() {
+        return view().getPkgsCount();
+    }
+
+    @Override
+    public Collection<String> getPkgNames() {
+        return view().getPkgNames();
+    }
+
+    @Override
+    public Collection<Pkg> getNamePkgs(String name) {
+        return view().getNamePkgs(name);
+    }
+
+    @Override
+    public Pkg getLatestPkg(String name) {
+        return view().getLatestPkg(name);
+    }
+
+    @Override
+    public Pkg getPreviousPkg(Pkg pkg) {
+        return view().getPreviousPkg(pkg);
+    }
+
+    @Override
+    public Run getJobLatestRun(Job job) {
+        return view().getJobLatestRun(job);
+    }
+
+    @Override
+    public Run getJobLatestFinishedRun(Job job) {
+        return view().getJobLatestFinishedRun(job);
+    }
+
+    @Override
+    public Collection<Run> getUnfinishedRuns() {
+        return view().getUnfinishedRuns();
+    }
+
+    @Override
+    public void removeJob(String name) {
+        beginUpdate();
+        try {
+            writer.removeJob(name);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public boolean removeRun(Run run) {
+        beginUpdate();
+        try {
+            return writer.removeRun(run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storeJob(Job job) {
+        beginUpdate();
+        try {
+            writer.storeJob(job);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storePkg(Pkg pkg) {
+        beginUpdate();
+        try {
+            writer.storePkg(pkg);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void storeRun(Run run) {
+        beginUpdate();
+        try {
+            writer.storeRun(run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void addPkgRun(Pkg pkg, Run run) {
+        beginUpdate();
+        try {
+            writer.addPkgRun(pkg, run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void setJobLatestRun(Job job, Run run) {
+        beginUpdate();
+        try {
+            writer.setJobLatestRun(job, run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void setJobLatestFinishedRun(Job job, Run run) {
+        beginUpdate();
+        try {
+            writer.setJobLatestFinishedRun(job, run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void addUnfinishedRun(Run run) {
+        beginUpdate();
+        try {
+            writer.addUnfinishedRun(run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    @Override
+    public void removeUnfinishedRun(Run run) {
+        beginUpdate();
+        try {
+            writer.removeUnfinishedRun(run);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    /*
+     * Remembers which jobs, pkgs and runs of them changed since last
+     * snapshot, so that snapshot can be derived from previous one.
+     */
+    static class TrackingStorage extends Storage {
+
+        boolean dirty = false;
+        Set<Job> dirtyJobs = new HashSet<>();
+        Set<Pkg> dirtyPkgs = new HashSet<>();
+        /* runs added, removed or changed by job and by pkg */
+        Map<Job, Set<Run>> dirtyJobsRuns = new HashMap<>();
+        Map<Pkg, Set<Run>> dirtyPkgsRuns = new HashMap<>();
+
+        boolean isDirty() {
+            return dirty;
+        }
+
+        /* collections are replaced, cleared ones would keep capacity
+           of big batch (e.g. initial poll) and be slow to iterate */
+        void clearDirty() {
+            dirty = false;
+            dirtyJobs = new HashSet<>();
+            dirtyPkgs = new HashSet<>();
+            dirtyJobsRuns = new HashMap<>();
+            dirtyPkgsRuns = new HashMap<>();
+        }
+
+        private static <K> void addDirtyRun(Map<K, Set<Run>> dirtyRuns, K key, Run run) {
+            Set<Run> runs = dirtyRuns.get(key);
+            if (runs == null) {
+                runs = new HashSet<>();
+                dirtyRuns.put(key, runs);
+            }
+            runs.add(run);
+        }
+
+        void jobRunChanged(Run run) {
+            dirty = true;
+            dirtyJobs.add(run.getJob());
+            addDirtyRun(dirtyJobsRuns, run.getJob(), run);
+        }
+
+        void pkgRunChanged(Pkg pkg, Run run) {
+            dirty = true;
+            dirtyPkgs.add(pkg);
+            addDirtyRun(dirtyPkgsRuns, pkg, run);
+        }
+
+        /* job and pkgs containing run need new snapshot, pkgs left
+           without runs are removed */
+        void runChanged(Run run) {
+            jobRunChanged(run);
+            Set<Pkg> runPkgs = runsPkgs.get(run);
+            if (runPkgs != null) {
+                for (Pkg pkg : runPkgs) {
+                    pkgRunChanged(pkg, run);
+                }
+            }
+        }
+
+        /*
+         * Unfinished runs are changed by poller in place, snapshot gets
+         * copies of them. Copy is replaced, when run changes.
+         */
+        Map<Run, Run> freezeUnfinishedRuns(Map<Run, Run> previous) {
+            Map<Run, Run> frozen = new HashMap<>(unfinishedRuns.size() * 2);
+            for (Run run : unfinishedRuns) {
+                Run copy = previous.get(run);
+                if (copy == null || copy.getStatus() != run.getStatus() || copy.modifTime != run.modifTime) {
+                    copy = new Run(run.getJob(), run.getName());
+                    copy.setStatus(run.getStatus());
+                    copy.modifTime = run.modifTime;
+                    runChanged(run);
+                }
+                frozen.put(run, copy);
+            }
+            return frozen;
+        }
+
+        @Override
+        public void removeJob(String name) {
+            dirty = true;
+            Job job = jobs.get(name);
+            Set<Run> removedRuns = job == null ? null : jobsRuns.get(job);
+            if (job != null) {
+                dirtyJobs.add(job);
+            }
+            if (removedRuns != null) {
+                for (Run run : removedRuns) {
+                    runChanged(run);
+                }
+            }
+            super.removeJob(name);
+        }
+
+        @Override
+        public boolean removeRun(Run run) {
+            runChanged(run);
+            return super.removeRun(run);
+        }
+
+        @Override
+        public void storeJob(Job job) {
+            dirty = true;
+            dirtyJobs.add(job);
+            super.storeJob(job);
+        }
+
+        @Override
+        public void storePkg(Pkg pkg) {
+            dirty = true;
+            dirtyPkgs.add(pkg);
+            super.storePkg(pkg);
+        }
+
+        @Override
+        public void storeRun(Run run) {
+            jobRunChanged(run);
+            super.storeRun(run);
+        }
+
+        @Override
+        public void addPkgRun(Pkg pkg, Run run) {
+            pkgRunChanged(pkg, run);
+            super.addPkgRun(pkg, run);
+        }
+
+        @Override
+        public void setJobLatestRun(Job job, Run run) {
+            dirty = true;
+            dirtyJobs.add(job);
+            super.setJobLatestRun(job, run);
+        }
+
+        @Override
+        public void setJobLatestFinishedRun(Job job, Run run) {
+            dirty = true;
+            dirtyJobs.add(job);
+            super.setJobLatestFinishedRun(job, run);
+        }
+
+        @Override
+        public void addUnfinishedRun(Run run) {
+            runChanged(run);
+            super.addUnfinishedRun(run);
+        }
+
+        @Override
+        public void removeUnfinishedRun(Run run) {
+            /* sets get finished run instead of copy */
+            runChanged(run);
+            super.removeUnfinishedRun(run);
+        }
+
+    }
+
+    /*
+     * Immutable version of storage. It is derived from previous snapshot by
+     * applying changed jobs, pkgs and runs, unchanged parts of maps (also
+     * of sets of runs) are shared, so publishing costs O(changes * log n)
+     * instead of copying everything. Getters return views instead of copies.
+     */
+    static class Snapshot implements StorageInterface {
+
+        final PersistentSortedMap<String, Job> jobs;
+        final PersistentSortedMap<Job, PersistentSortedMap<Run, Run>> jobsRuns;
+        final PersistentSortedMap<Job, Run> jobsLatestRun;
+        final PersistentSortedMap<Job, Run> jobsLatestFinishedRun;
+        final PersistentSortedMap<String, Pkg> pkgs;
+        final PersistentSortedMap<Pkg, Pkg> sortedPkgs;
+        final PersistentSortedMap<Pkg, PersistentSortedMap<Run, Run>> pkgsRuns;
+        final PersistentSortedMap<String, PersistentSortedMap<Pkg, Pkg>> namesPkgs;
+        /* unfinished run -> its copy */
+        final Map<Run, Run> frozenRuns;
+        final Set<Run> unfinishedRuns;
+
+        Snapshot() {
+            jobs = PersistentSortedMap.empty();
+            jobsRuns = PersistentSortedMap.empty();
+            jobsLatestRun = PersistentSortedMap.empty();
+            jobsLatestFinishedRun = PersistentSortedMap.empty();
+            pkgs = PersistentSortedMap.empty();
+            sortedPkgs = PersistentSortedMap.empty();
+            pkgsRuns = PersistentSortedMap.empty();
+            namesPkgs = PersistentSortedMap.empty();
+            frozenRuns = Collections.emptyMap();
+            unfinishedRuns = Collections.emptySet();
+        }
+
+        Snapshot(TrackingStorage writer, Snapshot previous, Map<Run, Run> frozen) {
+            frozenRuns = frozen;
+            unfinishedRuns = Collections.unmodifiableSet(new HashSet<>(frozen.values()));
+            PersistentSortedMap<String, Job> newJobs = previous.jobs;
+            PersistentSortedMap<Job, Run> newLatestRun = previous.jobsLatestRun;
+            PersistentSortedMap<Job, Run> newLatestFinishedRun = previous.jobsLatestFinishedRun;
+            for (Job job : writer.dirtyJobs) {
+                newJobs = update(newJobs, job.getName(), writer.jobs.get(job.getName()));
+                newLatestRun = update(newLatestRun, job, freeze(writer.jobsLatestRun.get(job), frozen));
+                newLatestFinishedRun = update(newLatestFinishedRun, job, freeze(writer.jobsLatestFinishedRun.get(job), frozen));
+            }
+            jobs = newJobs;
+            jobsLatestRun = newLatestRun;
+            jobsLatestFinishedRun = newLatestFinishedRun;
+            PersistentSortedMap<Job, PersistentSortedMap<Run, Run>> newJobsRuns = previous.jobsRuns;
+            for (Map.Entry<Job, Set<Run>> entry : writer.dirtyJobsRuns.entrySet()) {
+                Job job = entry.getKey();
+                newJobsRuns = updateRuns(newJobsRuns, job, writer.jobsRuns.get(job), entry.getValue(), frozen);
+            }
+            jobsRuns = newJobsRuns;
+            PersistentSortedMap<String, Pkg> newPkgs = previous.pkgs;
+            PersistentSortedMap<Pkg, Pkg> newSortedPkgs = previous.sortedPkgs;
+            PersistentSortedMap<String, PersistentSortedMap<Pkg, Pkg>> newNamesPkgs = previous.namesPkgs;
+            for (Pkg pkg : writer.dirtyPkgs) {
+                Pkg current = writer.pkgs.get(pkg.getStrId());
+                newPkgs = update(newPkgs, pkg.getStrId(), current);
+                newSortedPkgs = update(newSortedPkgs, pkg, current);
+                String name = pkg.getName();
+                PersistentSortedMap<Pkg, Pkg> namePkgs = newNamesPkgs.get(name);
+                if (namePkgs == null) {
+                    namePkgs = PersistentSortedMap.empty(Pkg.VERSION_ORDER);
+                }
+                Pkg namePkg = stored(writer.namesPkgs.get(name), pkg);
+                namePkgs = namePkg == null ? namePkgs.remove(pkg) : namePkgs.put(namePkg, namePkg);
+                newNamesPkgs = update(newNamesPkgs, name, namePkgs.isEmpty() ? null : namePkgs);
+            }
+            pkgs = newPkgs;
+            sortedPkgs = newSortedPkgs;
+            namesPkgs = newNamesPkgs;
+            PersistentSortedMap<Pkg, PersistentSortedMap<Run, Run>> newPkgsRuns = previous.pkgsRuns;
+            for (Map.Entry<Pkg, Set<Run>> entry : writer.dirtyPkgsRuns.entrySet()) {
+                Pkg pkg = entry.getKey();
+                newPkgsRuns = updateRuns(newPkgsRuns, pkg, writer.pkgsRuns.get(pkg), entry.getValue(), frozen);
+            }
+            pkgsRuns = newPkgsRuns;
+        }
+
+        private static <K, V> PersistentSortedMap<K, V> update(PersistentSortedMap<K, V> map, K key, V value) {
+            return value == null ? map.remove(key) : map.put(key, value);
+        }
+
+        /* applies changed runs to runs of job or pkg, runs are mapped to
+           their frozen copies */
+        private static <K> PersistentSortedMap<K, PersistentSortedMap<Run, Run>> updateRuns(
+                PersistentSortedMap<K, PersistentSortedMap<Run, Run>> map, K key, SortedSet<Run> current,
+                Set<Run> changed, Map<Run, Run> frozen) {
+            if (current == null) {
+                return map.remove(key);
+            }
+            PersistentSortedMap<Run, Run> runs = map.get(key);
+            if (runs == null) {
+                runs = PersistentSortedMap.empty();
+            }
+            for (Run run : changed) {
+                Run storedRun = stored(current, run);
+                runs = storedRun == null ? runs.remove(run) : runs.put(storedRun, freeze(storedRun, frozen));
+            }
+            return map.put(key, runs);
+        }
+
+        /* item of set equal to given one, null if there is none */
+        private static <T> T stored(SortedSet<T> set, T item) {
+            return set != null && set.contains(item) ? set.tailSet(item).first() : null;
+        }
+
+        private static Run freeze(Run run, Map<Run, Run> frozen) {
+            Run copy = run == null ? null : frozen.get(run);
+            return copy != null ? copy : run;
+        }
+
+        @Override
+        public Job getJob(String name) {
+            return jobs.get(name);
+        }
+
+        @Override
+        public Pkg getPkg(String name) {
+            return pkgs.get(name);
+        }
+
+        @Override
+        public Collection<Job> getJobs() {
+            return jobs.values();
+        }
+
+        @Override
+        public Collection<Pkg> getPkgs() {
+            return sortedPkgs.values();
+        }
+
+        @Override
+        public Collection<Run> getJobRuns(Job job) {
+            PersistentSortedMap<Run, Run> runs = jobsRuns.get(job);
+            return runs != null ? runs.values() : Collections.<Run>emptySet();
+        }
+
+        @Override
+        public Collection<Run> getPkgRuns(Pkg pkg) {
+            PersistentSortedMap<Run, Run> runs = pkgsRuns.get(pkg);
+            return runs != null ? runs.values() : Collections.<Run>emptySet();
+        }
+
+        @Override
+        public int getPkgRunsCount(Pkg pkg) {
+            PersistentSortedMap<Run, Run> runs = pkgsRuns.get(pkg);
+            return runs == null ? 0 : runs.size();
+        }
+
+        /* snapshot does not index pkgs by run, all pkgs are searched,
+           writer (used during update) has the index */
+        @Override
+        public Collection<Pkg> getRunPkgs(Run run) {
+            List<Pkg> list = new ArrayList<>();
+            for (Pkg pkg : pkgsRuns.keys()) {
+                if (pkgsRuns.get(pkg).get(run) != null) {
+                    list.add(pkg);
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public List<Job> getJobs(String from, boolean before, int limit) {
+            return jobs.page(from, before, limit);
+        }
+
+        @Override
+        public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+            return sortedPkgs.page(from, before, limit);
+        }
+
+        @Override
+        public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+            PersistentSortedMap<Run, Run> runs = pkgsRuns.get(pkg);
+            return runs != null ? runs.page(from, before, limit) : Collections.<Run>emptyList();
+        }
+
+        @Override
+        public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+            PersistentSortedMap<Run, Run> runs = jobsRuns.get(job);
+            return runs != null ? runs.page(from, before, limit) : Collections.<Run>emptyList();
+        }
+
+        @Override
+        public int getJobsCount() {
+            return jobs.size();
+        }
+
+        @Override
+        public int getPkgsCount() {
+            return sortedPkgs.size();
+        }
+
+        @Override
+        public Collection<String> getPkgNames() {
+            return namesPkgs.keys();
+        }
+
+        @Override
+        public Collection<Pkg> getNamePkgs(String name) {
+            PersistentSortedMap<Pkg, Pkg> namePkgs = namesPkgs.get(name);
+            return namePkgs != null ? namePkgs.values() : Collections.<Pkg>emptySet();
+        }
+
+        @Override
+        public Pkg getLatestPkg(String name) {
+            PersistentSortedMap<Pkg, Pkg> namePkgs = namesPkgs.get(name);
+            return namePkgs != null ? namePkgs.last() : null;
+        }
+
+        @Override
+        public Pkg getPreviousPkg(Pkg pkg) {
+            PersistentSortedMap<Pkg, Pkg> namePkgs = namesPkgs.get(pkg.getName());
+            if (namePkgs == null) {
+                return null;
+            }
+            List<Pkg> olderPkgs = namePkgs.page(pkg, true, 1);
+            return olderPkgs.isEmpty() ? null : olderPkgs.get(0);
+        }
+
+        @Override
+        public Run getJobLatestRun(Job job) {
+            return jobsLatestRun.get(job);
+        }
+
+        @Override
+        public Run getJobLatestFinishedRun(Job job) {
+            return jobsLatestFinishedRun.get(job);
+        }
+
+        @Override
+        public Collection<Run> getUnfinishedRuns() {
+            return unfinishedRuns;
+        }
+
+        @Override
+        public void removeJob(String name) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void storeJob(Job job) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void storePkg(Pkg pkg) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void storeRun(Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public boolean removeRun(Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void addPkgRun(Pkg pkg, Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void setJobLatestRun(Job job, Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void setJobLatestFinishedRun(Job job, Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void addUnfinishedRun(Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void removeUnfinishedRun(Run run) {
+            throw new UnsupportedOperationException("Snapshot is read-only");
+        }
+
+        @Override
+        public void beginUpdate() {
+        }
+
+        @Override
+        public void endUpdate() {
+        }
+
+    }
+
+}
@@ -25,21 +25,32 @@ package resultsview.storage;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class Storage implements StorageInterface {
 
-    Map<String, Job> jobs = new HashMap<>();
-    Map<Job, Set<Run>> jobsRuns = new HashMap<>(); // runs for given job
+    /* collections of jobs, pkgs and runs are kept sorted,
+       so that readers do not need to sort them */
+    SortedMap<String, Job> jobs = new TreeMap<>();
+    Map<Job, SortedSet<Run>> jobsRuns = new HashMap<>(); // runs for given job
 
     Map<String, Pkg> pkgs = new HashMap<>();
-    Map<Pkg, Set<Run>> pkgsRuns = new HashMap<>(); // runs for given pkg
+    SortedSet<Pkg> sortedPkgs = new TreeSet<>();
+    Map<Pkg, SortedSet<Run>> pkgsRuns = new HashMap<>(); // runs for given pkg
+    Map<Run, Set<Pkg>> runsPkgs = new HashMap<>(); // pkgs for given run
+    SortedMap<String, SortedSet<Pkg>> namesPkgs = new TreeMap<>(); // pkgs for given package name
 
     Map<Job, Run> jobsLatestRun = new HashMap<>(); // latest run for given job
+    Map<Job, Run> jobsLatestFinishedRun = new HashMap<>(); // latest finished run for given job
     Set<Run> unfinishedRuns = new HashSet<>();
 
     @Override
@@ -59,19 +70,19 @@ public class Storage implements StorageInterface {
 
     @Override
     public Collection<Pkg> getPkgs() {
-        return new ArrayList<>(pkgs.values());
+        return new ArrayList<>(sortedPkgs);
     }
 
     @Override
     public Collection<Run> getJobRuns(Job job) {
         Set<Run> runs = jobsRuns.get(job);
-        return runs != null ? new HashSet<Run>(runs) : Collections.<Run>emptySet();
+        return runs != null ? new ArrayList<Run>(runs) : Collections.<Run>emptyList();
     }
 
     @Override
     public Collection<Run> getPkgRuns(Pkg pkg) {
         Set<Run> runs = pkgsRuns.get(pkg);
-        return runs != null ? new HashSet<Run>(runs) : Collections.<Run>emptySet();
+        return runs != null ? new ArrayList<Run>(runs) : Collections.<Run>emptyList();
     }
 
     @Override
@@ -80,24 +91,152 @@ public class Storage implements StorageInterface {
         return runs == null ? 0 : runs.size();
     }
 
+    @Override
+    public Collection<Pkg> getRunPkgs(Run run) {
+        Set<Pkg> runPkgs = runsPkgs.get(run);
+        return runPkgs != null ? new ArrayList<Pkg>(runPkgs) : Collections.<Pkg>emptyList();
+    }
+
+    @Override
+    public List<Job> getJobs(String from, boolean before, int limit) {
+        return page(jobs, from, before, limit);
+    }
+
+    @Override
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit) {
+        return page(sortedPkgs, from, before, limit);
+    }
+
+    @Override
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit) {
+        SortedSet<Run> runs = pkgsRuns.get(pkg);
+        return runs != null ? page(runs, from, before, limit) : Collections.<Run>emptyList();
+    }
+
+    @Override
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit) {
+        SortedSet<Run> runs = jobsRuns.get(job);
+        return runs != null ? page(runs, from, before, limit) : Collections.<Run>emptyList();
+    }
+
+    @Override
+    public int getJobsCount() {
+        return jobs.size();
+    }
+
+    @Override
+    public int getPkgsCount() {
+        return sortedPkgs.size();
+    }
+
+    /* see StorageInterface, iterates only items of the page */
+    static <T> List<T> page(SortedSet<T> set, T from, boolean before, int limit) {
+        List<T> page = new ArrayList<>();
+        if (!before) {
+            for (T item : from == null ? set : set.tailSet(from)) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                page.add(item);
+            }
+            return page;
+        }
+        SortedSet<T> head = from == null ? set : set.headSet(from);
+        while (page.size() < limit && !head.isEmpty()) {
+            T last = head.last();
+            page.add(last);
+            head = head.headSet(last);
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    static <K, V> List<V> page(SortedMap<K, V> map, K from, boolean before, int limit) {
+        List<V> page = new ArrayList<>();
+        if (!before) {
+            for (V item : from == null ? map.values() : map.tailMap(from).values()) {
+                if (page.size() >= limit) {
+                    break;
+                }
+                page.add(item);
+            }
+            return page;
+        }
+        SortedMap<K, V> head = from == null ? map : map.headMap(from);
+        while (page.size() < limit && !head.isEmpty()) {
+            K last = head.lastKey();
+            page.add(head.get(last));
+            head = head.headMap(last);
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    @Override
+    public Collection<String> getPkgNames() {
+        return new ArrayList<>(namesPkgs.keySet());
+    }
+
+    @Override
+    public Collection<Pkg> getNamePkgs(String name) {
+        Set<Pkg> namePkgs = namesPkgs.get(name);
+        return namePkgs != null ? new ArrayList<Pkg>(namePkgs) : Collections.<Pkg>emptyList();
+    }
+
+    @Override
+    public Pkg getLatestPkg(String name) {
+        SortedSet<Pkg> namePkgs = namesPkgs.get(name);
+        return namePkgs != null ? namePkgs.last() : null;
+    }
+
+    @Override
+    public Pkg getPreviousPkg(Pkg pkg) {
+        SortedSet<Pkg> namePkgs = namesPkgs.get(pkg.getName());
+        if (namePkgs == null) {
+            return null;
+        }
+        SortedSet<Pkg> olderPkgs = namePkgs.headSet(pkg);
+        return olderPkgs.isEmpty() ? null : olderPkgs.last();
+    }
+
     @Override
     public void removeJob(String name) {
         Job removedJob = jobs.remove(name);
         jobsLatestRun.remove(removedJob);
+        jobsLatestFinishedRun.remove(removedJob);
         Set<Run> removedRuns = jobsRuns.remove(removedJob);
         if (removedRuns != null) {
             for (Run run : removedRuns) {
-                for (Pkg pkg : pkgs.values()) {
-                    Set<Run> pkgRuns = pkgsRuns.get(pkg);
-                    if (pkgRuns != null) {
-                        pkgRuns.remove(run);
-                    }
-                }
+                removeRunPkgs(run);
                 unfinishedRuns.remove(run);
             }
         }
     }
 
+    void removeRunPkgs(Run run) {
+        Set<Pkg> runPkgs = runsPkgs.remove(run);
+        if (runPkgs != null) {
+            for (Pkg pkg : runPkgs) {
+                Set<Run> pkgRuns = pkgsRuns.get(pkg);
+                if (pkgRuns != null) {
+                    pkgRuns.remove(run);
+                }
+                removePkgIfEmpty(pkg);
+            }
+        }
+    }
+
+    /* pkgs left without runs are removed */
+    private void removePkgIfEmpty(Pkg pkg) {
+        Set<Run> pkgRuns = pkgsRuns.get(pkg);
+        if (pkgRuns != null && pkgRuns.isEmpty()) {
+            pkgsRuns.remove(pkg);
+            pkgs.remove(pkg.getStrId());
+            sortedPkgs.remove(pkg);
+            removeNamePkg(pkg);
+        }
+    }
+
     @Override
     public void storeJob(Job job) {
         String name = job.getName();
@@ -107,15 +246,33 @@ public class Storage implements StorageInterface {
     @Override
     public void storePkg(Pkg pkg) {
         String name = pkg.getStrId();
-        pkgs.put(name, pkg);
+        Pkg oldPkg = pkgs.put(name, pkg);
+        if (oldPkg != null) {
+            sortedPkgs.remove(oldPkg);
+            removeNamePkg(oldPkg);
+        }
+        sortedPkgs.add(pkg);
+        SortedSet<Pkg> namePkgs = namesPkgs.get(pkg.getName());
+        if (namePkgs == null) {
+            namePkgs = new TreeSet<>(Pkg.VERSION_ORDER);
+            namesPkgs.put(pkg.getName(), namePkgs);
+        }
+        namePkgs.add(pkg);
+    }
+
+    void removeNamePkg(Pkg pkg) {
+        Set<Pkg> namePkgs = namesPkgs.get(pkg.getName());
+        if (namePkgs != null && namePkgs.remove(pkg) && namePkgs.isEmpty()) {
+            namesPkgs.remove(pkg.getName());
+        }
     }
 
     @Override
     public void storeRun(Run run) {
         Job job = run.getJob();
-        Set<Run> runs = jobsRuns.get(job);
+        SortedSet<Run> runs = jobsRuns.get(job);
         if (runs == null) {
-            runs = new HashSet<>();
+            runs = new TreeSet<>();
             jobsRuns.put(job, runs);
         }
         if (!runs.contains(run)) {
@@ -123,16 +280,56 @@ public class Storage implements StorageInterface {
         }
     }
 
+    @Override
+    public boolean removeRun(Run run) {
+        Job job = run.getJob();
+        SortedSet<Run> runs = jobsRuns.get(job);
+        if (runs == null || !runs.remove(run)) {
+            return false;
+        }
+        removeRunPkgs(run);
+        unfinishedRuns.remove(run);
+        Run latestRun = jobsLatestRun.get(job);
+        if (latestRun != null && latestRun.equals(run)) {
+            if (runs.isEmpty()) {
+                jobsLatestRun.remove(job);
+            } else {
+                jobsLatestRun.put(job, runs.last());
+            }
+        }
+        Run latestFinishedRun = jobsLatestFinishedRun.get(job);
+        if (latestFinishedRun != null && latestFinishedRun.equals(run)) {
+            Run finishedRun = runs.isEmpty() ? null : runs.last();
+            while (finishedRun != null && !finishedRun.isFinished()) {
+                SortedSet<Run> olderRuns = runs.headSet(finishedRun);
+                finishedRun = olderRuns.isEmpty() ? null : olderRuns.last();
+            }
+            if (finishedRun == null) {
+                jobsLatestFinishedRun.remove(job);
+            } else {
+                jobsLatestFinishedRun.put(job, finishedRun);
+            }
+        }
+        return true;
+    }
+
     @Override
     public void addPkgRun(Pkg pkg, Run run) {
-        Set<Run> runs = pkgsRuns.get(pkg);
+        SortedSet<Run> runs = pkgsRuns.get(pkg);
         if (runs == null) {
-            runs = new HashSet<>();
+            runs = new TreeSet<>();
             pkgsRuns.put(pkg, runs);
         }
         if (!runs.contains(run)) {
             runs.add(run);
         }
+        Set<Pkg> runPkgs = runsPkgs.get(run);
+        if (runPkgs == null) {
+            /* run usually belongs to single pkg */
+            runPkgs = new HashSet<>(2);
+            runsPkgs.put(run, runPkgs);
+        }
+        runPkgs.add(pkg);
     }
 
     @Override
@@ -145,6 +342,16 @@ public class Storage implements StorageInterface {
         jobsLatestRun.put(job, run);
     }
 
+    @Override
+    public Run getJobLatestFinishedRun(Job job) {
+        return jobsLatestFinishedRun.get(job);
+    }
+
+    @Override
+    public void setJobLatestFinishedRun(Job job, Run run) {
+        jobsLatestFinishedRun.put(job, run);
+    }
+
     @Override
     public void addUnfinishedRun(Run run) {
         unfinishedRuns.add(run);
@@ -160,4 +367,12 @@ public class Storage implements StorageInterface {
         return new HashSet<Run>(unfinishedRuns);
     }
 
+    @Override
+    public void beginUpdate() {
+    }
+
+    @Override
+    public void endUpdate() {
+    }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+/**
+ * Change of storage, see {@link EventStorage}. Status is the status of run
+ * at the time of change, run object itself may be changed later.
+ */
+public class StorageEvent {
+
+    public enum Type {
+        JOB_ADDED,
+        JOB_REMOVED,
+        RUN_ADDED,
+        RUN_REMOVED,
+        RUN_STATUS_CHANGED,
+        PKG_RUN_ADDED,
+        /* pkg was left without runs by removal of run of job */
+        PKG_REMOVED,
+        /* run is new latest (finished) run of job, null if job has none */
+        LATEST_RUN_CHANGED,
+        LATEST_FINISHED_RUN_CHANGED
+    }
+
+    final Type type;
+    final Job job;
+    final Run run;
+    final Pkg pkg;
+    final int status;
+
+    StorageEvent(Type type, Job job, Run run, Pkg pkg) {
+        this.type = type;
+        this.job = job;
+        this.run = run;
+        this.pkg = pkg;
+        this.status = run == null ? Run.UNKNOWN : run.getStatus();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    /* null for job events and for latest run changes, after which job
+       has no latest run */
+    public Run getRun() {
+        return run;
+    }
+
+    /* null except for PKG_RUN_ADDED and PKG_REMOVED */
+    public Pkg getPkg() {
+        return pkg;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(type).append(' ').append(job.getName());
+        if (run != null) {
+            sb.append('/').append(run.getName());
+        }
+        if (pkg != null) {
+            sb.append(' ').append(pkg.getStrId());
+        }
+        return sb.toString();
+    }
+
+}
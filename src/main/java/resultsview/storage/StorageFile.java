@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves content of storage to binary file and loads it back, so that
+ * poller does not need to parse all build.xml files again after restart.
+ * Modification times of jobs and runs are kept, so poller only checks for
+ * changes.
+ */
+public class StorageFile {
+
+    private static final int MAGIC = 0x52565354;
+    private static final int VERSION = 1;
+
+    private static final String NO_RUN = "";
+
+    /**
+     * Saves storage to file. File is replaced atomically, so old content
+     * is kept if saving fails.
+     *
+     * @param storage storage to save
+     * @param file target file
+     * @throws IOException on error
+     */
+    public static void save(StorageInterface storage, Path file) throws IOException {
+        saveChecked(storage, file);
+    }
+
+    /* saves storage and returns CRC32 of written file, file is synced
+       before it is renamed and directory is synced after rename, so file
+       is complete and in place when this returns */
+    static long saveChecked(StorageInterface storage, Path file) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(channel), crc)));
+            write(storage, out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file);
+        return crc.getValue();
+    }
+
+    /* makes creation or rename of file durable by syncing its directory */
+    static void syncDirectory(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            /* directories cannot be opened on some platforms (Windows),
+               renames are journaled by file system there */
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static void write(StorageInterface storage, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        Collection<Job> jobs = storage.getJobs();
+        Map<Job, Integer> jobIndexes = new HashMap<>();
+        out.writeInt(jobs.size());
+        for (Job job : jobs) {
+            jobIndexes.put(job, jobIndexes.size());
+            out.writeUTF(job.getName());
+            out.writeLong(job.modifTime);
+            out.writeLong(job.lastBuildNumber);
+            Collection<Run> runs = storage.getJobRuns(job);
+            out.writeInt(runs.size());
+            for (Run run : runs) {
+                out.writeUTF(run.getName());
+                out.writeByte(run.getStatus());
+                out.writeLong(run.modifTime);
+            }
+            writeRunName(out, storage.getJobLatestRun(job));
+            writeRunName(out, storage.getJobLatestFinishedRun(job));
+        }
+        Collection<Pkg> pkgs = storage.getPkgs();
+        out.writeInt(pkgs.size());
+        for (Pkg pkg : pkgs) {
+            out.writeUTF(pkg.getStrId());
+            writeRuns(out, storage.getPkgRuns(pkg), jobIndexes);
+        }
+        writeRuns(out, storage.getUnfinishedRuns(), jobIndexes);
+    }
+
+    private static void writeRunName(DataOutputStream out, Run run) throws IOException {
+        out.writeUTF(run == null ? NO_RUN : run.getName());
+    }
+
+    private static void writeRuns(DataOutputStream out, Collection<Run> runs, Map<Job, Integer> jobIndexes) throws IOException {
+        List<Run> storedRuns = new ArrayList<>(runs.size());
+        for (Run run : runs) {
+            if (jobIndexes.containsKey(run.getJob())) {
+                storedRuns.add(run);
+            }
+        }
+        out.writeInt(storedRuns.size());
+        for (Run run : storedRuns) {
+            out.writeInt(jobIndexes.get(run.getJob()));
+            out.writeUTF(run.getName());
+        }
+    }
+
+    /**
+     * Loads content of file into storage, storage should be empty.
+     *
+     * @param file file created by {@link #save(StorageInterface, Path)}
+     * @param storage target storage
+     * @throws IOException on error or if file has unknown format
+     */
+    public static void load(Path file, StorageInterface storage) throws IOException {
+        loadChecked(file, storage);
+    }
+
+    /* loads storage and returns CRC32 of read file, checksum is computed
+       on the same open file, so it matches loaded content even if file
+       is replaced meanwhile */
+    static long loadChecked(Path file, StorageInterface storage) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new CheckedInputStream(Files.newInputStream(file), crc)))) {
+            storage.beginUpdate();
+            try {
+                read(in, storage);
+            } finally {
+                storage.endUpdate();
+            }
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                /* rest of file is part of checksum */
+            }
+        }
+        return crc.getValue();
+    }
+
+    static void read(DataInputStream in, StorageInterface storage) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a storage file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported storage file version: " + version);
+        }
+        /* run names are mostly same numbers, share the strings */
+        Map<String, String> names = new HashMap<>();
+        int jobCount = in.readInt();
+        List<Map<String, Run>> jobsRuns = new ArrayList<>(jobCount);
+        for (int i = 0; i < jobCount; ++i) {
+            Job job = new Job(in.readUTF());
+            job.modifTime = in.readLong();
+            job.lastBuildNumber = in.readLong();
+            storage.storeJob(job);
+            int runCount = in.readInt();
+            Map<String, Run> runs = new HashMap<>(runCount * 2);
+            for (int j = 0; j < runCount; ++j) {
+                String name = intern(names, in.readUTF());
+                Run run = new Run(job, name);
+                run.setStatus(in.readByte());
+                run.modifTime = in.readLong();
+                storage.storeRun(run);
+                runs.put(name, run);
+            }
+            jobsRuns.add(runs);
+            Run latestRun = runs.get(in.readUTF());
+            if (latestRun != null) {
+                storage.setJobLatestRun(job, latestRun);
+            }
+            Run latestFinishedRun = runs.get(in.readUTF());
+            if (latestFinishedRun != null) {
+                storage.setJobLatestFinishedRun(job, latestFinishedRun);
+            }
+        }
+        int pkgCount = in.readInt();
+        for (int i = 0; i < pkgCount; ++i) {
+            Pkg pkg = new Pkg(in.readUTF());
+            storage.storePkg(pkg);
+            for (Run run : readRuns(in, jobsRuns)) {
+                storage.addPkgRun(pkg, run);
+            }
+        }
+        for (Run run : readRuns(in, jobsRuns)) {
+            storage.addUnfinishedRun(run);
+        }
+    }
+
+    private static String intern(Map<String, String> names, String name) {
+        String interned = names.get(name);
+        if (interned == null) {
+            names.put(name, name);
+            interned = name;
+        }
+        return interned;
+    }
+
+    private static List<Run> readRuns(DataInputStream in, List<Map<String, Run>> jobsRuns) throws IOException {
+        int count = in.readInt();
+        List<Run> runs = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            int jobIndex = in.readInt();
+            String name = in.readUTF();
+            if (jobIndex < 0 || jobIndex >= jobsRuns.size()) {
+                throw new IOException("Invalid job index: " + jobIndex);
+            }
+            Run run = jobsRuns.get(jobIndex).get(name);
+            if (run == null) {
+                throw new IOException("Unknown run: " + name);
+            }
+            runs.add(run);
+        }
+        return runs;
+    }
+
+}
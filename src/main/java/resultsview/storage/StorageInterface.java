@@ -24,6 +24,7 @@
 package resultsview.storage;
 
 import java.util.Collection;
+import java.util.List;
 
 public interface StorageInterface {
 
@@ -31,6 +32,8 @@ public interface StorageInterface {
 
     public Pkg getPkg(String name);
 
+    /* collections of jobs, pkgs and runs are returned in sorted order */
+
     public Collection<Job> getJobs();
 
     public Collection<Pkg> getPkgs();
@@ -41,6 +44,40 @@ public interface StorageInterface {
 
     public int getPkgRunsCount(Pkg pkg);
 
+    /* pkgs, which run belongs to */
+    public Collection<Pkg> getRunPkgs(Run run);
+
+    /*
+     * Pages of sorted collections, so that readers do not need to copy
+     * whole collections. Returns first limit items not less than from
+     * (null = from the first item) or, with before, last limit items less
+     * than from (null = up to the last item), in both cases in sorted order.
+     */
+
+    public List<Job> getJobs(String from, boolean before, int limit);
+
+    public List<Pkg> getPkgs(Pkg from, boolean before, int limit);
+
+    public List<Run> getPkgRuns(Pkg pkg, Run from, boolean before, int limit);
+
+    public List<Run> getJobRuns(Job job, Run from, boolean before, int limit);
+
+    public int getJobsCount();
+
+    public int getPkgsCount();
+
+    /* package names of stored pkgs */
+    public Collection<String> getPkgNames();
+
+    /* pkgs with given package name, in Pkg.VERSION_ORDER */
+    public Collection<Pkg> getNamePkgs(String name);
+
+    /* newest pkg with given package name, null if there is none */
+    public Pkg getLatestPkg(String name);
+
+    /* pkg with the same package name preceding given one, null if there is none */
+    public Pkg getPreviousPkg(Pkg pkg);
+
     public void removeJob(String name);
 
     public void storeJob(Job job);
@@ -49,15 +86,32 @@ public interface StorageInterface {
 
     public void storeRun(Run run);
 
+    /* also removes pkgs left without runs and moves latest run pointers,
+       returns false if run was not stored */
+    public boolean removeRun(Run run);
+
     public void addPkgRun(Pkg pkg, Run run);
 
     public Run getJobLatestRun(Job job);
 
     public void setJobLatestRun(Job job, Run run);
 
+    public Run getJobLatestFinishedRun(Job job);
+
+    public void setJobLatestFinishedRun(Job job, Run run);
+
     public void addUnfinishedRun(Run run);
 
     public void removeUnfinishedRun(Run run);
 
     public Collection<Run> getUnfinishedRuns();
+
+    /**
+     * Starts batch of changes done by one thread, changes may not be visible
+     * to other threads until matching {@link #endUpdate()}. Batches may be
+     * nested.
+     */
+    public void beginUpdate();
+
+    public void endUpdate();
 }
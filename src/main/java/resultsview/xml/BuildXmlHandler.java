@@ -135,6 +135,14 @@ public class BuildXmlHandler extends SAXTreeHandler {
         matrixBuildNode.addChild(durationNode);
         matrixBuildNode.addChild(buildOnNode);
 
+        /* builtOn is missing for builds on built-in node, so it is not required */
+        addRequiredNode(nameNode);
+        addRequiredNode(versionNode);
+        addRequiredNode(releaseNode);
+        addRequiredNode(resultNode);
+        addRequiredNode(timestampNode);
+        addRequiredNode(durationNode);
+
         setRootNode(rootNode);
     }
 
@@ -162,6 +170,8 @@ public class BuildXmlHandler extends SAXTreeHandler {
         return duration;
     }
 
+    /* not available in stop when complete mode, builtOn follows duration
+       in build.xml and is not required (see above) */
     public String getBuiltOn() {
         return builtOn;
     }
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.xml;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reuses SAX parsers, creating parser is more expensive than parsing small
+ * files like build.xml. Parsers are kept per thread, so it can be used
+ * from multiple threads. Parsers do not load external DTDs or entities
+ * and each parse is limited in size and time.
+ */
+public class SAXParserPool {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_TIME = 60_000;
+
+    private static final SAXParserFactory factory = createFactory();
+
+    private static final ThreadLocal<Deque<SAXParser>> parsers = new ThreadLocal<Deque<SAXParser>>() {
+        @Override
+        protected Deque<SAXParser> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private static volatile long maxTime = DEFAULT_MAX_TIME;
+    private static final AtomicLong bytesRead = new AtomicLong();
+
+    private static SAXParserFactory createFactory() {
+        SAXParserFactory f = SAXParserFactory.newInstance();
+        f.setNamespaceAware(false);
+        f.setValidating(false);
+        f.setXIncludeAware(false);
+        try {
+            f.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            f.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            f.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            f.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException("Failed to configure SAX parser factory", e);
+        }
+        return f;
+    }
+
+    /**
+     * Sets limits applied to each parse.
+     *
+     * @param bytes maximal number of bytes read from input
+     * @param millis maximal duration of parse in milliseconds
+     */
+    public static void setLimits(long bytes, long millis) {
+        maxBytes = bytes;
+        maxTime = millis;
+    }
+
+    /**
+     * Returns number of bytes read by all parses so far.
+     *
+     * @return number of bytes
+     */
+    public static long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public static void parse(Path file, DefaultHandler handler) throws IOException, SAXException {
+        try (InputStream is = Files.newInputStream(file)) {
+            parse(is, handler);
+        }
+    }
+
+    public static void parse(InputStream is, DefaultHandler handler) throws IOException, SAXException {
+        Deque<SAXParser> free = parsers.get();
+        /* stack, so nested parse on the same thread gets another parser */
+        SAXParser parser = free.pollFirst();
+        if (parser == null) {
+            parser = newParser();
+        }
+        LimitedInputStream limited = new LimitedInputStream(new BufferedInputStream(is), maxBytes, maxTime);
+        try {
+            parser.parse(new InputSource(limited), handler);
+        } catch (SAXTreeHandler.StopParsingException e) {
+            /* handler has everything it needs */
+        } finally {
+            bytesRead.addAndGet(limited.read);
+            parser.reset();
+            free.addFirst(parser);
+        }
+    }
+
+    private static SAXParser newParser() throws SAXException {
+        try {
+            /* factory is not guaranteed to be thread safe */
+            synchronized (factory) {
+                return factory.newSAXParser();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxBytes;
+        private final long deadline;
+        private long read = 0;
+
+        LimitedInputStream(InputStream in, long maxBytes, long maxTime) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.deadline = System.nanoTime() + maxTime * 1_000_000;
+        }
+
+        private void check(long n) throws IOException {
+            if (n > 0) {
+                read += n;
+                if (read > maxBytes) {
+                    throw new IOException("Input larger than limit: " + maxBytes + " bytes");
+                }
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("Parse took longer than limit");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            check(b < 0 ? 0 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            check(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            check(skipped);
+            return skipped;
+        }
+
+    }
+
+}
@@ -26,12 +26,19 @@ package resultsview.xml;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
 public class SAXTreeHandler extends DefaultHandler {
 
     private SAXTreeHandlerNode rootNode;
     private final ArrayList<StackElement> stack = new ArrayList<StackElement>();
+    private final Set<SAXTreeHandlerNode> requiredNodes = new HashSet<>();
+    private boolean stopWhenComplete = false;
 
     public void setRootNode(SAXTreeHandlerNode rootNode) {
         this.rootNode = rootNode;
@@ -39,6 +46,34 @@ public class SAXTreeHandler extends DefaultHandler {
         stack.add(rootElement);
     }
 
+    /**
+     * Marks node as required. In stop when complete mode parsing ends as soon
+     * as elements of all required nodes were processed.
+     *
+     * @param node required node
+     */
+    public void addRequiredNode(SAXTreeHandlerNode node) {
+        requiredNodes.add(node);
+    }
+
+    /**
+     * Enables ending parse early, once all required nodes were processed,
+     * rest of the input is not read. Content of other nodes may be missing.
+     *
+     * @param stopWhenComplete true to enable
+     */
+    public void setStopWhenComplete(boolean stopWhenComplete) {
+        this.stopWhenComplete = stopWhenComplete;
+    }
+
+    public void parse(Path file) throws IOException, SAXException {
+        SAXParserPool.parse(file, this);
+    }
+
+    public void parse(InputStream is) throws IOException, SAXException {
+        SAXParserPool.parse(is, this);
+    }
+
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
         StackElement prevElement = stack.get(stack.size() - 1);
@@ -64,6 +99,9 @@ public class SAXTreeHandler extends DefaultHandler {
 
         if (curNode != null) {
             curNode.endElement(uri, localName, qName);
+            if (requiredNodes.remove(curNode) && stopWhenComplete && requiredNodes.isEmpty()) {
+                throw new StopParsingException();
+            }
         }
 
         stack.remove(stack.size() - 1);
@@ -79,6 +117,18 @@ public class SAXTreeHandler extends DefaultHandler {
         }
     }
 
+    /**
+     * Thrown by handler to end parsing, it is not an error.
+     */
+    public static class StopParsingException extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+
+        public StopParsingException() {
+            super("Parsing stopped, all required elements processed");
+        }
+    }
+
     private static class StackElement {
 
         String name;
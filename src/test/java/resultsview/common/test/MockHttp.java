@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.common.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Request and response for servlet tests. Only methods used by servlet
+ * are implemented, others return null, 0 or false.
+ */
+class MockHttp {
+
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    static class Request implements InvocationHandler {
+
+        final String servletPath;
+        final Map<String, String> params = new HashMap<>();
+        final Map<String, String> headers = new HashMap<>();
+
+        Request(String servletPath) {
+            this.servletPath = servletPath;
+        }
+
+        Request param(String name, String value) {
+            params.put(name, value);
+            return this;
+        }
+
+        Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                    new Class<?>[] {HttpServletRequest.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getServletPath":
+                    return servletPath;
+                case "getMethod":
+                    return "GET";
+                case "getProtocol":
+                    return "HTTP/1.1";
+                case "getParameter":
+                    return params.get((String) args[0]);
+                case "getHeader":
+                    return headers.get((String) args[0]);
+                case "getDateHeader":
+                    return -1L;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    static class Response implements InvocationHandler {
+
+        int status = HttpServletResponse.SC_OK;
+        String contentType = null;
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(MockHttp.class.getClassLoader(),
+                    new Class<?>[] {HttpServletResponse.class}, this);
+        }
+
+        /* body as text, uncompressed if it was compressed */
+        String text() throws IOException {
+            byte[] bytes = body.toByteArray();
+            if ("gzip".equals(headers.get("Content-Encoding"))) {
+                ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                    byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        uncompressed.write(buffer, 0, count);
+                    }
+                }
+                bytes = uncompressed.toByteArray();
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "setStatus":
+                case "sendError":
+                    status = (Integer) args[0];
+                    return null;
+                case "getStatus":
+                    return status;
+                case "setHeader":
+                    headers.put((String) args[0], (String) args[1]);
+                    return null;
+                case "getHeader":
+                    return headers.get((String) args[0]);
+                case "containsHeader":
+                    return headers.containsKey((String) args[0]);
+                case "setContentLength":
+                    headers.put("Content-Length", String.valueOf(args[0]));
+                    return null;
+                case "setContentType":
+                    contentType = (String) args[0];
+                    return null;
+                case "getContentType":
+                    return contentType;
+                case "getOutputStream":
+                    return new ServletOutputStream() {
+                        @Override
+                        public void write(int b) {
+                            body.write(b);
+                        }
+
+                        @Override
+                        public void write(byte[] b, int off, int len) {
+                            body.write(b, off, len);
+                        }
+
+                        @Override
+                        public boolean isReady() {
+                            return true;
+                        }
+
+                        @Override
+                        public void setWriteListener(WriteListener listener) {
+                        }
+                    };
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+}
@@ -30,22 +30,43 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import resultsview.poll.Indexer;
 import resultsview.poll.JenkinsPoller;
 import resultsview.storage.Job;
 import resultsview.storage.Run;
 import resultsview.storage.Pkg;
 import resultsview.storage.Storage;
 import java.util.regex.Pattern;
+import resultsview.storage.ChangeLog;
+import resultsview.storage.CompactStorage;
 import resultsview.storage.ConcurrentStorage;
+import resultsview.storage.SnapshotStorage;
+import resultsview.storage.StorageFile;
+import resultsview.storage.StorageInterface;
+import resultsview.storage.LogStorage;
+import resultsview.storage.EventStorage;
+import resultsview.storage.StorageEvent;
+import resultsview.storage.StorageListener;
 
 public class TestJenkinPoller {
 
@@ -233,6 +254,582 @@ public class TestJenkinPoller {
         Assert.assertEquals("Correct number of runs for pkg3", 1, runsPkg3.size());
     }
 
+    @Test
+    public void checkSnapshotStorageScan() throws Exception {
+        SnapshotStorage storage = new SnapshotStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        Assert.assertEquals("Correct number of jobs", 4, storage.getJobs().size());
+        Assert.assertEquals("Correct number of pkgs", 3, storage.getPkgs().size());
+        Assert.assertEquals("Correct number of runs in running set", 2, storage.getUnfinishedRuns().size());
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+        recursiveDelete(jenkinsJobs.resolve("job3"));
+        jenkins.poll();
+        Assert.assertEquals("Correct number of jobs", 3, storage.getJobs().size());
+        Assert.assertEquals("Correct number of runs in running set", 1, storage.getUnfinishedRuns().size());
+        Assert.assertEquals("Correct number of runs for pkg2", 1, storage.getPkgRuns(storage.getPkg("pkg-1-2")).size());
+        Assert.assertEquals("Correct number of runs for pkg3", 2, storage.getPkgRuns(storage.getPkg("pkg-1-3")).size());
+    }
+
+    @Test
+    public void checkLatestFinishedRun() throws Exception {
+        Storage storage = new ConcurrentStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        Assert.assertNull("No finished run", storage.getJobLatestFinishedRun(storage.getJob("job1")));
+        Assert.assertNull("No finished run", storage.getJobLatestFinishedRun(storage.getJob("job2")));
+        Job job4 = storage.getJob("job4");
+        Assert.assertEquals("Correct latest finished run", "2", storage.getJobLatestFinishedRun(job4).getName());
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 4, "pkg-1-3", null);
+        jenkins.poll();
+        Assert.assertEquals("Correct latest finished run", "2", storage.getJobLatestFinishedRun(job4).getName());
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 4, "pkg-1-3", "FAILURE");
+        jenkins.poll();
+        Assert.assertEquals("Correct latest finished run", "4", storage.getJobLatestFinishedRun(job4).getName());
+        Thread.sleep(10);
+
+        /* older run finishing does not move pointer back */
+        createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+        jenkins.poll();
+        Assert.assertEquals("Correct latest finished run", "4", storage.getJobLatestFinishedRun(job4).getName());
+    }
+
+    @Test
+    public void checkStorageFile() throws Exception {
+        Storage storage = new ConcurrentStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        Path file = tmpDir.resolve("storage.bin");
+        StorageFile.save(storage, file);
+
+        TestStorage loaded = new TestStorage();
+        StorageFile.load(file, loaded);
+        Assert.assertEquals("Correct number of jobs", 4, loaded.getJobs().size());
+        Assert.assertEquals("Correct number of pkgs", 3, loaded.getPkgs().size());
+        Assert.assertEquals("Correct number of runs in running set", 2, loaded.getUnfinishedRuns().size());
+        assertSameContent(storage, loaded);
+        for (Job job : storage.getJobs()) {
+            Assert.assertEquals("Correct job modifTime", job.modifTime, loaded.getJob(job.getName()).modifTime);
+        }
+
+        /* poller started with loaded storage only picks up changes */
+        loaded.jobctr = 0;
+        loaded.runctr = 0;
+        loaded.pkgctr = 0;
+        loaded.pkgRunCtr = 0;
+        JenkinsPoller restarted = new JenkinsPoller(jenkinsJobs, loaded);
+        restarted.poll();
+        Assert.assertEquals("Zero new jobs", 0, loaded.jobctr);
+        Assert.assertEquals("Zero new runs", 0, loaded.runctr);
+        Assert.assertEquals("Zero new pkgs", 0, loaded.pkgctr);
+        Assert.assertEquals("Zero new pkgsRuns", 0, loaded.pkgRunCtr);
+        Assert.assertEquals("Zero removed jobs", 0, loaded.rmJobCtr);
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 4, "pkg-1-3", "SUCCESS");
+        restarted.poll();
+        Assert.assertEquals("One new run", 1, loaded.runctr);
+        Assert.assertEquals("Correct latest run", "4", loaded.getJobLatestRun(loaded.getJob("job4")).getName());
+    }
+
+    static void assertSameContent(StorageInterface expected, StorageInterface actual) {
+        Assert.assertEquals("Correct jobs", names(expected.getJobs()), names(actual.getJobs()));
+        for (Job job : expected.getJobs()) {
+            Job actualJob = actual.getJob(job.getName());
+            Assert.assertEquals("Correct latest run", expected.getJobLatestRun(job), actual.getJobLatestRun(actualJob));
+            Assert.assertEquals("Correct latest finished run", expected.getJobLatestFinishedRun(job), actual.getJobLatestFinishedRun(actualJob));
+            List<Run> runs = new ArrayList<>(expected.getJobRuns(job));
+            List<Run> actualRuns = new ArrayList<>(actual.getJobRuns(actualJob));
+            Assert.assertEquals("Correct runs", runs, actualRuns);
+            for (int i = 0; i < runs.size(); ++i) {
+                Assert.assertEquals("Correct run status", runs.get(i).getStatus(), actualRuns.get(i).getStatus());
+                Assert.assertEquals("Correct run modifTime", runs.get(i).modifTime, actualRuns.get(i).modifTime);
+            }
+        }
+        Assert.assertEquals("Correct pkgs", names(expected.getPkgs()), names(actual.getPkgs()));
+        for (Pkg pkg : expected.getPkgs()) {
+            Assert.assertEquals("Correct pkg runs", new ArrayList<>(expected.getPkgRuns(pkg)), new ArrayList<>(actual.getPkgRuns(actual.getPkg(pkg.getStrId()))));
+        }
+        Assert.assertEquals("Correct unfinished runs", new HashSet<>(expected.getUnfinishedRuns()), new HashSet<>(actual.getUnfinishedRuns()));
+    }
+
+    static List<String> names(Collection<?> objects) {
+        List<String> names = new ArrayList<>();
+        for (Object o : objects) {
+            names.add(o instanceof Job ? ((Job) o).getName() : ((Pkg) o).getStrId());
+        }
+        return names;
+    }
+
+    void changeFakeJenkins() throws Exception {
+        Thread.sleep(10);
+        createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+        createBuild(jenkinsJobs, "job4", 4, "pkg-1-4", null);
+        createBuild(jenkinsJobs, "job2", 1, "pkg-1-4", "FAILURE");
+        recursiveDelete(jenkinsJobs.resolve("job3"));
+    }
+
+    @Test
+    public void checkLogStorageRecovery() throws Exception {
+        Path logDir = tmpDir.resolve("log");
+        LogStorage storage = new LogStorage(new ConcurrentStorage(), logDir);
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        changeFakeJenkins();
+        jenkins.poll();
+
+        /* storage not closed, as after crash */
+        LogStorage recovered = new LogStorage(new ConcurrentStorage(), logDir);
+        assertSameContent(storage, recovered);
+        Assert.assertEquals("Correct number of jobs", 3, recovered.getJobs().size());
+
+        /* torn write at the end of log is ignored */
+        Files.write(logDir.resolve("log"), new byte[] {0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+        recovered = new LogStorage(new ConcurrentStorage(), logDir);
+        assertSameContent(storage, recovered);
+    }
+
+    @Test
+    public void checkLogStorageCompaction() throws Exception {
+        Path logDir = tmpDir.resolve("log");
+        LogStorage storage = new LogStorage(new SnapshotStorage(), logDir);
+        storage.compactSize = 0;
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        storage.compact();
+        Assert.assertTrue("Checkpoint written", Files.exists(logDir.resolve("checkpoint")));
+        /* only header is left */
+        Assert.assertTrue("Log replaced", Files.size(logDir.resolve("log")) < 32);
+        changeFakeJenkins();
+        jenkins.poll();
+
+        /* background compaction may run during recovery */
+        LogStorage recovered = new LogStorage(new ConcurrentStorage(), logDir);
+        assertSameContent(storage, recovered);
+
+        /* crash after checkpoint was replaced, but before log was:
+           old log is covered by checkpoint and must not be replayed */
+        Path oldLog = tmpDir.resolve("log.old");
+        Files.copy(logDir.resolve("log"), oldLog);
+        storage.compact();
+        Files.copy(oldLog, logDir.resolve("log"), StandardCopyOption.REPLACE_EXISTING);
+        recovered = new LogStorage(new ConcurrentStorage(), logDir);
+        assertSameContent(storage, recovered);
+
+        /* log without header is not replayed over checkpoint */
+        Path strayDir = tmpDir.resolve("stray");
+        LogStorage stray = new LogStorage(new ConcurrentStorage(), strayDir);
+        stray.storeJob(new Job("stray"));
+        byte[] strayLog = Files.readAllBytes(strayDir.resolve("log"));
+        /* header frame: length, op, checkpoint id, checksum */
+        Files.write(logDir.resolve("log"), Arrays.copyOfRange(strayLog, 17, strayLog.length));
+        recovered = new LogStorage(new ConcurrentStorage(), logDir);
+        Assert.assertNull("Stray log not replayed", recovered.getJob("stray"));
+        assertSameContent(storage, recovered);
+
+        storage.close();
+        Assert.assertTrue("Log replaced on close", Files.size(logDir.resolve("log")) < 32);
+        recovered = new LogStorage(new ConcurrentStorage(), logDir);
+        assertSameContent(storage, recovered);
+    }
+
+    @Test
+    public void checkIndexer() throws Exception {
+        Path file = tmpDir.resolve("storage.bin");
+        Indexer.main(new String[] {"-p", "job[34]", "-t", "2", jenkinsJobs.toString(), file.toString()});
+        Storage storage = new Storage();
+        StorageFile.load(file, storage);
+        Assert.assertEquals("Correct jobs", Arrays.asList("job3", "job4"), names(storage.getJobs()));
+        Assert.assertEquals("Correct number of pkgs", 3, storage.getPkgs().size());
+        Assert.assertEquals("Correct number of runs", 3, storage.getJobRuns(storage.getJob("job4")).size());
+    }
+
+    @Test
+    public void checkProgressiveInitialPoll() throws Exception {
+        Storage expected = new ConcurrentStorage();
+        new JenkinsPoller(jenkinsJobs, expected).poll();
+
+        Storage storage = new ConcurrentStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.setPollThreads(4);
+        jenkins.initialBuilds = 1;
+        try {
+            jenkins.poll();
+            Job job4 = storage.getJob("job4");
+            Assert.assertEquals("Only newest run read", 1, storage.getJobRuns(job4).size());
+            Assert.assertEquals("Correct latest run", "3", storage.getJobLatestRun(job4).getName());
+            Assert.assertEquals("Correct jobs scanned", 4, jenkins.getJobsScanned());
+            Assert.assertEquals("Correct builds ingested", 3, jenkins.getBuildsIngested());
+            Assert.assertEquals("Correct builds remaining", 3, jenkins.getBuildsRemaining());
+
+            Assert.assertTrue("More builds remaining", jenkins.backfill(2));
+            Assert.assertEquals("Correct builds remaining", 1, jenkins.getBuildsRemaining());
+            Assert.assertFalse("No builds remaining", jenkins.backfill(2));
+            Assert.assertEquals("Correct builds ingested", 6, jenkins.getBuildsIngested());
+            Assert.assertEquals("Latest run kept", "3", storage.getJobLatestRun(job4).getName());
+            assertSameContent(expected, storage);
+        } finally {
+            jenkins.shutdown();
+        }
+    }
+
+    @Test
+    public void checkBackfillAfterRestart() throws Exception {
+        Storage expected = new ConcurrentStorage();
+        new JenkinsPoller(jenkinsJobs, expected).poll();
+
+        Storage storage = new ConcurrentStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.initialBuilds = 1;
+        jenkins.poll();
+        Assert.assertTrue("More builds remaining", jenkins.backfill(2));
+        Assert.assertEquals("Correct builds remaining", 1, jenkins.getBuildsRemaining());
+
+        /* restart in the middle of backfill */
+        Path file = tmpDir.resolve("storage.bin");
+        StorageFile.save(storage, file);
+        Storage restored = new ConcurrentStorage();
+        StorageFile.load(file, restored);
+        jenkins = new JenkinsPoller(jenkinsJobs, restored);
+        jenkins.initialBuilds = 1;
+        jenkins.poll();
+        Assert.assertEquals("Missing builds found", 1, jenkins.getBuildsRemaining());
+        Assert.assertFalse("No builds remaining", jenkins.backfill(2));
+        assertSameContent(expected, restored);
+
+        /* nothing is queued again by next polls */
+        jenkins.poll();
+        Assert.assertEquals("No builds remaining", 0, jenkins.getBuildsRemaining());
+    }
+
+    @Test
+    public void checkAdaptiveScheduling() throws Exception {
+        Storage storage = new ConcurrentStorage();
+        ClockPoller jenkins = new ClockPoller(jenkinsJobs, storage);
+        jenkins.minCheckInterval = 1000;
+        jenkins.maxCheckInterval = 4000;
+        jenkins.poll();
+        Assert.assertEquals("No checks skipped", 0, jenkins.getLastSkippedStats());
+        /* job1 is idle, others had new builds */
+        jenkins.poll();
+        Assert.assertEquals("Idle job skipped", 2, jenkins.getLastSkippedStats());
+        Thread.sleep(10);
+
+        /* job1 and job3 are idle, job2 and job4 have running builds */
+        createBuild(jenkinsJobs, "job3", 3, "pkg-1-3", "SUCCESS");
+        jenkins.time = 500;
+        jenkins.poll();
+        Assert.assertEquals("Idle jobs skipped", 4, jenkins.getLastSkippedStats());
+        Assert.assertEquals("New build of idle job not seen yet", 2, storage.getJobRuns(storage.getJob("job3")).size());
+
+        jenkins.time = 1000;
+        jenkins.poll();
+        Assert.assertEquals("No checks skipped", 0, jenkins.getLastSkippedStats());
+        Assert.assertEquals("New build of idle job seen", 3, storage.getJobRuns(storage.getJob("job3")).size());
+
+        /* job1 interval doubled, job3 is active again */
+        jenkins.time = 2000;
+        jenkins.poll();
+        Assert.assertEquals("Idle job skipped", 2, jenkins.getLastSkippedStats());
+        jenkins.time = 3000;
+        jenkins.poll();
+        Assert.assertEquals("No checks skipped", 0, jenkins.getLastSkippedStats());
+        Assert.assertEquals("Total skipped", 8, jenkins.getSkippedStats());
+    }
+
+    void writeTimedBuildXml(String jobName, int buildId, String result, long timestamp, long duration) throws IOException {
+        Path buildXml = jenkinsJobs.resolve(jobName).resolve("builds").resolve(Integer.toString(buildId)).resolve("build.xml");
+        List<String> lines = new ArrayList<>();
+        lines.add("<?xml version='1.1' encoding='UTF-8'?>");
+        lines.add("<build>");
+        lines.add("  <actions/>");
+        if (result != null) {
+            lines.add("  <result>" + result + "</result>");
+        }
+        lines.add("  <timestamp>" + timestamp + "</timestamp>");
+        lines.add("  <duration>" + duration + "</duration>");
+        lines.add("</build>");
+        Files.write(buildXml, lines, Charset.forName("UTF-8"));
+    }
+
+    @Test
+    public void checkUnfinishedRunsScheduling() throws Exception {
+        /* job4 runs take 10s, job2 has no history */
+        writeTimedBuildXml("job4", 1, "SUCCESS", 0, 10000);
+        writeTimedBuildXml("job4", 2, "FAILURE", 0, 10000);
+        writeTimedBuildXml("job4", 3, null, 0, 0);
+        Storage storage = new ConcurrentStorage();
+        ClockPoller jenkins = new ClockPoller(jenkinsJobs, storage);
+        jenkins.minRecheckInterval = 1000;
+        jenkins.maxRecheckInterval = 60000;
+        jenkins.poll();
+        Assert.assertEquals("Correct number of runs in running set", 2, storage.getUnfinishedRuns().size());
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job2", 1, null, "SUCCESS");
+        jenkins.time = 500;
+        jenkins.poll();
+        Assert.assertEquals("Both runs skipped", 4, jenkins.getLastSkippedStats());
+        Assert.assertEquals("Finished run not seen yet", 2, storage.getUnfinishedRuns().size());
+
+        jenkins.time = 1000;
+        jenkins.poll();
+        Assert.assertEquals("Run of job4 skipped", 2, jenkins.getLastSkippedStats());
+        Assert.assertEquals("Finished run seen", 1, storage.getUnfinishedRuns().size());
+
+        /* checked when expected to finish, then with backoff */
+        jenkins.time = 9999;
+        jenkins.poll();
+        Assert.assertEquals("Run of job4 skipped", 2, jenkins.getLastSkippedStats());
+        jenkins.time = 10000;
+        jenkins.poll();
+        Assert.assertEquals("Run of job4 checked", 0, jenkins.getLastSkippedStats());
+        jenkins.time = 10500;
+        jenkins.poll();
+        Assert.assertEquals("Run of job4 skipped", 2, jenkins.getLastSkippedStats());
+        jenkins.time = 11000;
+        jenkins.poll();
+        Assert.assertEquals("Run of job4 checked", 0, jenkins.getLastSkippedStats());
+        jenkins.time = 12000;
+        jenkins.poll();
+        Assert.assertEquals("Run of job4 skipped", 2, jenkins.getLastSkippedStats());
+        Thread.sleep(10);
+
+        writeTimedBuildXml("job4", 3, "SUCCESS", 0, 12500);
+        jenkins.time = 13000;
+        jenkins.poll();
+        Assert.assertEquals("No runs in running set", 0, storage.getUnfinishedRuns().size());
+    }
+
+    void checkRemovedBuildsPruned(StorageInterface storage, boolean useBuildCursor) throws Exception {
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.useBuildCursor = useBuildCursor;
+        jenkins.poll();
+        Assert.assertEquals("Correct number of pkgs", 3, storage.getPkgs().size());
+        Thread.sleep(10);
+
+        recursiveDelete(jenkinsJobs.resolve("job3").resolve("builds").resolve("1"));
+        recursiveDelete(jenkinsJobs.resolve("job4").resolve("builds").resolve("2"));
+        recursiveDelete(jenkinsJobs.resolve("job4").resolve("builds").resolve("3"));
+        jenkins.poll();
+        Assert.assertEquals("Correct number of pruned runs", 3, jenkins.getPrunedRuns());
+        Job job3 = storage.getJob("job3");
+        Job job4 = storage.getJob("job4");
+        Assert.assertEquals("Correct runs", 1, storage.getJobRuns(job3).size());
+        Assert.assertEquals("Correct runs", 1, storage.getJobRuns(job4).size());
+        Assert.assertEquals("Correct latest run", "1", storage.getJobLatestRun(job4).getName());
+        Assert.assertEquals("Correct latest finished run", "1", storage.getJobLatestFinishedRun(job4).getName());
+        Assert.assertEquals("Correct number of runs in running set", 1, storage.getUnfinishedRuns().size());
+        Assert.assertEquals("Pkgs without runs removed", Arrays.asList("pkg-1-2"), names(storage.getPkgs()));
+        Assert.assertEquals("Correct runs for pkg", 2, storage.getPkgRuns(storage.getPkg("pkg-1-2")).size());
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 4, "pkg-1-4", "SUCCESS");
+        jenkins.poll();
+        Assert.assertEquals("Correct latest run", "4", storage.getJobLatestRun(job4).getName());
+        Assert.assertEquals("Correct number of pruned runs", 3, jenkins.getPrunedRuns());
+        Thread.sleep(10);
+
+        /* build deleted together with new build started */
+        recursiveDelete(jenkinsJobs.resolve("job4").resolve("builds").resolve("1"));
+        createBuild(jenkinsJobs, "job4", 5, "pkg-1-4", "SUCCESS");
+        jenkins.poll();
+        Assert.assertEquals("Correct latest run", "5", storage.getJobLatestRun(job4).getName());
+        Assert.assertEquals("Correct number of pruned runs", 4, jenkins.getPrunedRuns());
+        Assert.assertEquals("Correct runs", 2, storage.getJobRuns(job4).size());
+    }
+
+    @Test
+    public void checkRemovedBuildsPruned() throws Exception {
+        checkRemovedBuildsPruned(new ConcurrentStorage(), false);
+    }
+
+    @Test
+    public void checkRemovedBuildsPrunedCursor() throws Exception {
+        checkRemovedBuildsPruned(new SnapshotStorage(), true);
+    }
+
+    @Test
+    public void checkStorageEvents() throws Exception {
+        final BlockingQueue<List<StorageEvent>> batches = new LinkedBlockingQueue<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        EventStorage storage = new EventStorage(new ConcurrentStorage());
+        storage.addListener(new StorageListener() {
+            @Override
+            public void storageChanged(long generation, List<StorageEvent> events) {
+                threads.add(Thread.currentThread().getName());
+                batches.add(events);
+            }
+        });
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        List<StorageEvent> events = batches.poll(10, TimeUnit.SECONDS);
+        Assert.assertEquals("Generation incremented", 1, storage.getGeneration());
+        Assert.assertEquals("Delivered by other thread", Arrays.asList("storage-events"), threads);
+        Map<StorageEvent.Type, Integer> counts = new HashMap<>();
+        for (StorageEvent event : events) {
+            Integer count = counts.get(event.getType());
+            counts.put(event.getType(), count == null ? 1 : count + 1);
+        }
+        Assert.assertEquals("Correct number of added jobs", Integer.valueOf(4), counts.get(StorageEvent.Type.JOB_ADDED));
+        Assert.assertEquals("Correct number of added runs", Integer.valueOf(countRuns(storage)),
+                counts.get(StorageEvent.Type.RUN_ADDED));
+        Assert.assertNotNull("Pkg runs added", counts.get(StorageEvent.Type.PKG_RUN_ADDED));
+        Assert.assertNotNull("Latest runs changed", counts.get(StorageEvent.Type.LATEST_RUN_CHANGED));
+        Set<Run> addedRuns = new HashSet<>();
+        for (StorageEvent event : events) {
+            if (event.getType() == StorageEvent.Type.RUN_ADDED) {
+                addedRuns.add(event.getRun());
+            } else if (event.getType() != StorageEvent.Type.JOB_ADDED) {
+                Assert.assertTrue("Run added before " + event, addedRuns.contains(event.getRun()));
+            }
+        }
+        Thread.sleep(10);
+
+        jenkins.poll();
+        Assert.assertEquals("No change, same generation", 1, storage.getGeneration());
+
+        createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+        recursiveDelete(jenkinsJobs.resolve("job3"));
+        jenkins.poll();
+        events = batches.poll(10, TimeUnit.SECONDS);
+        Assert.assertEquals("Generation incremented", 2, storage.getGeneration());
+        List<String> descriptions = new ArrayList<>();
+        for (StorageEvent event : events) {
+            descriptions.add(event.toString());
+        }
+        List<String> jobDescriptions = new ArrayList<>();
+        for (StorageEvent event : events) {
+            if (event.getJob().getName().equals("job3")) {
+                jobDescriptions.add(event.toString());
+            }
+        }
+        /* job removal reports its runs and pkgs left without runs */
+        Assert.assertEquals(Arrays.asList("RUN_REMOVED job3/1", "RUN_REMOVED job3/2", "LATEST_RUN_CHANGED job3",
+                "LATEST_FINISHED_RUN_CHANGED job3", "PKG_REMOVED job3 pkg-1-1", "JOB_REMOVED job3"), jobDescriptions);
+        Assert.assertTrue(descriptions.toString(), descriptions.contains("PKG_RUN_ADDED job4/3 pkg-1-3"));
+        Assert.assertTrue(descriptions.toString(), descriptions.contains("RUN_STATUS_CHANGED job4/3"));
+        Assert.assertTrue(descriptions.toString(), descriptions.contains("LATEST_FINISHED_RUN_CHANGED job4/3"));
+        for (StorageEvent event : events) {
+            if (event.getType() == StorageEvent.Type.RUN_STATUS_CHANGED) {
+                Assert.assertEquals("Status at time of change", Run.SUCCESS, event.getStatus());
+            }
+        }
+        Thread.sleep(10);
+
+        /* pkg of removed runs has no other runs */
+        recursiveDelete(jenkinsJobs.resolve("job4").resolve("builds").resolve("2"));
+        recursiveDelete(jenkinsJobs.resolve("job4").resolve("builds").resolve("3"));
+        jenkins.poll();
+        events = batches.poll(10, TimeUnit.SECONDS);
+        descriptions.clear();
+        for (StorageEvent event : events) {
+            descriptions.add(event.toString());
+        }
+        Assert.assertEquals(Arrays.asList("RUN_REMOVED job4/2", "RUN_REMOVED job4/3", "LATEST_RUN_CHANGED job4/1",
+                "LATEST_FINISHED_RUN_CHANGED job4/1", "PKG_REMOVED job4 pkg-1-3"), descriptions);
+        Assert.assertNull("Pkg removed", storage.getPkg("pkg-1-3"));
+        storage.close();
+        Assert.assertTrue("No more batches", batches.isEmpty());
+    }
+
+    @Test
+    public void checkChangeLog() throws Exception {
+        final BlockingQueue<List<StorageEvent>> batches = new LinkedBlockingQueue<>();
+        EventStorage storage = new EventStorage(new ConcurrentStorage());
+        /* only latest batch is kept */
+        ChangeLog changeLog = new ChangeLog(storage.getGeneration(), 1);
+        storage.addListener(changeLog);
+        /* listeners are called in order, change log is updated when batch arrives here */
+        storage.addListener(new StorageListener() {
+            @Override
+            public void storageChanged(long generation, List<StorageEvent> events) {
+                batches.add(events);
+            }
+        });
+        Assert.assertEquals("Nothing to return yet", 0, changeLog.getChangesSince(0).getEvents().size());
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        List<StorageEvent> first = batches.poll(10, TimeUnit.SECONDS);
+        ChangeLog.Changes changes = changeLog.getChangesSince(0);
+        Assert.assertEquals("Latest generation", 1, changes.getGeneration());
+        Assert.assertEquals("All changes of batch", first, changes.getEvents());
+        Assert.assertTrue("Up to date", changeLog.getChangesSince(1).getEvents().isEmpty());
+        Assert.assertNull("Unknown generation", changeLog.getChangesSince(2));
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+        jenkins.poll();
+        List<StorageEvent> second = batches.poll(10, TimeUnit.SECONDS);
+        changes = changeLog.getChangesSince(1);
+        Assert.assertEquals("Latest generation", 2, changes.getGeneration());
+        Assert.assertEquals("Only newer changes", second, changes.getEvents());
+        Assert.assertNull("Too old generation, resync needed", changeLog.getChangesSince(0));
+        Thread.sleep(10);
+
+        /* job3 is the only job with runs of pkg-1-1 */
+        recursiveDelete(jenkinsJobs.resolve("job3"));
+        jenkins.poll();
+        List<StorageEvent> third = batches.poll(10, TimeUnit.SECONDS);
+        changes = changeLog.getChangesSince(2);
+        Assert.assertEquals("Only newer changes", third, changes.getEvents());
+        List<String> descriptions = new ArrayList<>();
+        for (StorageEvent event : changes.getEvents()) {
+            descriptions.add(event.toString());
+        }
+        Assert.assertTrue(descriptions.toString(), descriptions.contains("PKG_REMOVED job3 pkg-1-1"));
+        Assert.assertFalse(descriptions.toString(), descriptions.contains("PKG_REMOVED job3 pkg-1-2"));
+        Assert.assertEquals("Job removed last", "JOB_REMOVED job3", descriptions.get(descriptions.size() - 1));
+        storage.close();
+    }
+
+    static int countRuns(StorageInterface storage) {
+        int count = 0;
+        for (Job job : storage.getJobs()) {
+            count += storage.getJobRuns(job).size();
+        }
+        return count;
+    }
+
+    @Test
+    public void checkCompactStorageScan() throws Exception {
+        Storage expected = new ConcurrentStorage();
+        CompactStorage storage = new CompactStorage();
+        JenkinsPoller expectedJenkins = new JenkinsPoller(jenkinsJobs, expected);
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        expectedJenkins.poll();
+        jenkins.poll();
+        assertSameContent(expected, storage);
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+        createBuild(jenkinsJobs, "job2", 1, "pkg-1-3", "SUCCESS");
+        recursiveDelete(jenkinsJobs.resolve("job3"));
+        recursiveDelete(jenkinsJobs.resolve("job4").resolve("builds").resolve("2"));
+        expectedJenkins.poll();
+        jenkins.poll();
+        assertSameContent(expected, storage);
+        Assert.assertEquals("Correct number of runs in running set", 0, storage.getUnfinishedRuns().size());
+    }
+
+    @Test
+    public void checkStorageFileInvalid() throws Exception {
+        Path file = tmpDir.resolve("storage.bin");
+        Files.write(file, "not a storage".getBytes("UTF-8"));
+        try {
+            StorageFile.load(file, new Storage());
+            Assert.fail("Invalid file loaded");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
     @Test
     public void checkNoChanges() throws Exception {
         TestStorage storage = new TestStorage();
@@ -411,6 +1008,7 @@ public class TestJenkinPoller {
         Assert.assertEquals("Correct number of runs for pkg2", 1, runsPkg2.size());
         runsPkg3 = storage.getPkgRuns(pkg3);
         Assert.assertEquals("Correct number of runs for pkg3", 1, runsPkg3.size());
+        Assert.assertEquals("Pkgs without runs removed", Arrays.asList("pkg-1-2", "pkg-1-3"), names(storage.getPkgs()));
         Thread.sleep(10);
 
         recursiveDelete(jenkinsJobs.resolve("job4"));
@@ -434,6 +1032,8 @@ public class TestJenkinPoller {
         Assert.assertEquals("Correct number of runs for pkg2", 0, runsPkg2.size());
         runsPkg3 = storage.getPkgRuns(pkg3);
         Assert.assertEquals("Correct number of runs for pkg3", 0, runsPkg3.size());
+        Assert.assertTrue("Pkgs without runs removed", storage.getPkgs().isEmpty());
+        Assert.assertTrue("Pkg names removed", storage.getPkgNames().isEmpty());
     }
 
     @Test
@@ -465,6 +1065,107 @@ public class TestJenkinPoller {
         Assert.assertEquals("Removed job", 0, storage.rmJobCtr);
     }
 
+    @Test
+    public void checkParallelScan() throws Exception {
+        TestStorage storage = new TestStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.setPollThreads(4);
+        try {
+            jenkins.poll();
+            Assert.assertEquals("Correct number of jobs", 4, storage.getJobs().size());
+            Assert.assertEquals("Correct number of runs", 6, storage.runctr);
+            Assert.assertEquals("Correct number of pkgs", 3, storage.getPkgs().size());
+            Assert.assertEquals("Correct number of runs in running set", 2, storage.getUnfinishedRuns().size());
+            Job job4 = storage.getJob("job4");
+            Assert.assertEquals("Correct latest run", "3", storage.getJobLatestRun(job4).getName());
+            Thread.sleep(10);
+
+            createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+            createBuild(jenkinsJobs, "job4", 4, "pkg-1-4", null);
+            storage.runctr = 0;
+            storage.pkgRunCtr = 0;
+            jenkins.poll();
+            Assert.assertEquals("One new run", 1, storage.runctr);
+            Assert.assertEquals("Two new pkgsRuns", 2, storage.pkgRunCtr);
+            Assert.assertEquals("Correct number of runs in running set", 2, storage.getUnfinishedRuns().size());
+            Assert.assertEquals("Correct latest run", "4", storage.getJobLatestRun(job4).getName());
+            Pkg pkg3 = storage.getPkg("pkg-1-3");
+            Assert.assertEquals("Correct number of runs for pkg3", 2, storage.getPkgRuns(pkg3).size());
+        } finally {
+            jenkins.shutdown();
+        }
+    }
+
+    @Test
+    public void checkWatchChanges() throws Exception {
+        TestStorage storage = new TestStorage();
+        JenkinsPoller jenkins = new JenkinsPoller(jenkinsJobs, storage);
+        jenkins.poll();
+        jenkins.startWatching();
+        try {
+            storage.runctr = 0;
+            storage.pkgRunCtr = 0;
+            jenkins.pollChanges();
+            Assert.assertEquals("Zero new runs", 0, storage.runctr);
+
+            createBuild(jenkinsJobs, "job3", 3, "pkg-1-3", "SUCCESS");
+            createBuild(jenkinsJobs, "job4", 3, "pkg-1-3", "SUCCESS");
+            for (int i = 0; i < 100 && (storage.runctr < 1 || storage.pkgRunCtr < 2); ++i) {
+                Thread.sleep(50);
+                jenkins.pollChanges();
+            }
+            Assert.assertEquals("One new run", 1, storage.runctr);
+            Assert.assertEquals("Two new pkgsRuns", 2, storage.pkgRunCtr);
+            Assert.assertEquals("Correct number of runs in running set", 1, storage.getUnfinishedRuns().size());
+            Pkg pkg3 = storage.getPkg("pkg-1-3");
+            Assert.assertEquals("Correct number of runs for pkg3", 3, storage.getPkgRuns(pkg3).size());
+        } finally {
+            jenkins.stopWatching();
+        }
+    }
+
+    @Test
+    public void checkBuildCursor() throws Exception {
+        TestStorage storage = new TestStorage();
+        ListCountingPoller jenkins = new ListCountingPoller(jenkinsJobs, storage);
+        jenkins.useBuildCursor = true;
+        jenkins.poll();
+        Assert.assertEquals("Correct number of runs", 6, storage.runctr);
+        Thread.sleep(10);
+
+        createBuildBasic(jenkinsJobs, "job1", 1);
+        createBuild(jenkinsJobs, "job3", 3, "pkg-1-3", "SUCCESS");
+        createBuild(jenkinsJobs, "job3", 5, "pkg-1-3", "SUCCESS");
+        storage.runctr = 0;
+        jenkins.listCtr = 0;
+        jenkins.poll();
+        Assert.assertEquals("Builds dirs not listed", 0, jenkins.listCtr);
+        Assert.assertEquals("Three new runs", 3, storage.runctr);
+        Job job3 = storage.getJob("job3");
+        Assert.assertEquals("Correct latest run", "5", storage.getJobLatestRun(job3).getName());
+        Assert.assertEquals("Correct number of runs", 4, storage.getJobRuns(job3).size());
+        Thread.sleep(10);
+
+        /* nextBuildNumber increased before build dir is created */
+        Path nextBuildFile = jenkinsJobs.resolve("job3").resolve("nextBuildNumber");
+        Files.write(nextBuildFile, "7\n".getBytes("UTF-8"));
+        Files.setLastModifiedTime(jenkinsJobs.resolve("job3").resolve("builds"),
+                FileTime.fromMillis(System.currentTimeMillis() + 1000));
+        storage.runctr = 0;
+        jenkins.poll();
+        Assert.assertEquals("Builds dirs not listed", 0, jenkins.listCtr);
+        Assert.assertEquals("Zero new runs", 0, storage.runctr);
+        Thread.sleep(10);
+
+        createBuild(jenkinsJobs, "job3", 6, "pkg-1-3", "SUCCESS");
+        Files.setLastModifiedTime(jenkinsJobs.resolve("job3").resolve("builds"),
+                FileTime.fromMillis(System.currentTimeMillis() + 2000));
+        jenkins.poll();
+        Assert.assertEquals("Builds dirs not listed", 0, jenkins.listCtr);
+        Assert.assertEquals("One new run", 1, storage.runctr);
+        Assert.assertEquals("Correct latest run", "6", storage.getJobLatestRun(job3).getName());
+    }
+
     //@Test
     public void poolTest() throws Exception {
         PrintStorage storage = new PrintStorage();
@@ -523,6 +1224,37 @@ public class TestJenkinPoller {
     }
 
 
+    static class ListCountingPoller extends JenkinsPoller {
+
+        int listCtr = 0;
+
+        public ListCountingPoller(Path jobsRoot, Storage storage) {
+            super(jobsRoot, storage);
+        }
+
+        @Override
+        public List<Path> listDirVerSorted(Path dir) throws IOException {
+            listCtr++;
+            return super.listDirVerSorted(dir);
+        }
+
+    }
+
+
+    static class ClockPoller extends JenkinsPoller {
+
+        long time = 0;
+
+        ClockPoller(Path jobsRoot, StorageInterface storage) {
+            super(jobsRoot, storage);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+
     static class PrintStorage extends Storage {
 
         @Override
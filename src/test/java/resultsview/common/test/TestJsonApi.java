@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.common.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import resultsview.servlet.JsonApi;
+import resultsview.storage.ChangeLog;
+import resultsview.storage.EventStorage;
+import resultsview.storage.Job;
+import resultsview.storage.Pkg;
+import resultsview.storage.Run;
+import resultsview.storage.Storage;
+
+public class TestJsonApi {
+
+    private static final Pattern JSON_PAGE = Pattern.compile("\\{\"items\":\\[(.*)\n\\],\"next\":(null|\"(.*)\")\\}\n", Pattern.DOTALL);
+    private static final Pattern NDJSON_NEXT = Pattern.compile("\\{\"next\":\"(.*)\"\\}");
+    private static final Pattern JOB_NAME = Pattern.compile("^\\{\"name\":\"([^\"]*)\"");
+    private static final Pattern RUN_NAME = Pattern.compile("^\\{\"job\":\"([^\"]*)\",\"run\":\"([^\"]*)\"");
+    private static final Pattern PKG_ID = Pattern.compile("^\\{\"id\":\"([^\"]*)\"");
+
+    private Storage storage;
+    private JsonApi api;
+
+    @Before
+    public void prepareStorage() {
+        storage = new Storage();
+        Pkg bigPkg = new Pkg("big-1-1");
+        storage.storePkg(bigPkg);
+        /* more jobs, runs and pkgs than api reads from storage at once (1000) */
+        for (int i = 0; i < 1100; ++i) {
+            Job job = new Job(String.format("job%04d", i));
+            storage.storeJob(job);
+            Run run = new Run(job, "1");
+            run.setStatus(i % 3 == 0 ? Run.FAILURE : Run.SUCCESS);
+            run.modifTime = i;
+            storage.storeRun(run);
+            storage.setJobLatestRun(job, run);
+            storage.setJobLatestFinishedRun(job, run);
+            Pkg pkg = new Pkg("pkg" + i + "-1-1");
+            storage.storePkg(pkg);
+            storage.addPkgRun(pkg, run);
+        }
+        Job bigJob = new Job("big");
+        storage.storeJob(bigJob);
+        for (int i = 1; i <= 2500; ++i) {
+            Run run = new Run(bigJob, Integer.toString(i));
+            run.setStatus(i % 2 == 0 ? Run.FAILURE : Run.SUCCESS);
+            storage.storeRun(run);
+            storage.addPkgRun(bigPkg, run);
+        }
+        api = new JsonApi(storage, new ChangeLog(0, 100), "test");
+    }
+
+    private MockHttp.Response get(JsonApi jsonApi, MockHttp.Request request) throws IOException {
+        MockHttp.Response response = new MockHttp.Response();
+        jsonApi.process(request.proxy(), response.proxy());
+        return response;
+    }
+
+    /* records of one response and cursor of the next page */
+    static class Page {
+
+        final List<String> records = new ArrayList<>();
+        String next = null;
+    }
+
+    static Page parsePage(String text, boolean ndjson) {
+        Page page = new Page();
+        if (ndjson) {
+            for (String line : text.split("\n")) {
+                Assert.assertNull("Cursor is on the last line", page.next);
+                Matcher matcher = NDJSON_NEXT.matcher(line);
+                if (matcher.matches()) {
+                    page.next = matcher.group(1);
+                } else {
+                    Assert.assertTrue("Record per line: " + line, line.startsWith("{") && line.endsWith("}"));
+                    page.records.add(line);
+                }
+            }
+            return page;
+        }
+        Matcher matcher = JSON_PAGE.matcher(text);
+        Assert.assertTrue("Json page: " + text, matcher.matches());
+        page.next = matcher.group(3);
+        String items = matcher.group(1);
+        if (!items.isEmpty()) {
+            Assert.assertTrue("Record per line", items.startsWith("\n"));
+            for (String record : items.substring(1).split(",\n")) {
+                page.records.add(record);
+            }
+        }
+        return page;
+    }
+
+    /* follows cursors until the last page, returns records of all pages */
+    private List<String> readPages(MockHttp.Request request, boolean ndjson, int limit) throws IOException {
+        request.param("format", ndjson ? "ndjson" : "json");
+        request.param("limit", Integer.toString(limit));
+        List<String> records = new ArrayList<>();
+        String cursor = null;
+        do {
+            request.param("cursor", cursor);
+            MockHttp.Response response = get(api, request);
+            Assert.assertEquals("Success", HttpServletResponse.SC_OK, response.status);
+            Assert.assertEquals("Content type", ndjson ? "application/x-ndjson;charset=UTF-8" : "application/json;charset=UTF-8",
+                    response.contentType);
+            Page page = parsePage(response.text(), ndjson);
+            if (limit > 0) {
+                Assert.assertTrue("Page within limit", page.records.size() <= limit);
+                if (page.next != null) {
+                    Assert.assertEquals("Full page before next", limit, page.records.size());
+                }
+            }
+            records.addAll(page.records);
+            cursor = page.next;
+        } while (cursor != null);
+        Assert.assertEquals("No duplicates", records.size(), new HashSet<>(records).size());
+        return records;
+    }
+
+    private void checkPages(String path, String param, String value, List<String> expected, Pattern key) throws IOException {
+        for (boolean ndjson : new boolean[] {false, true}) {
+            List<String> all = readPages(new MockHttp.Request(path).param(param, value), ndjson, 0);
+            Assert.assertEquals("Correct records", expected, keys(all, key));
+            for (int limit : new int[] {1, 700, 1000, 1001}) {
+                if (limit == 1 && expected.size() > 100) {
+                    continue;
+                }
+                List<String> paged = readPages(new MockHttp.Request(path).param(param, value), ndjson, limit);
+                Assert.assertEquals("Pages concatenate to full result, limit " + limit, all, paged);
+            }
+        }
+    }
+
+    static List<String> keys(List<String> records, Pattern key) {
+        List<String> keys = new ArrayList<>();
+        for (String record : records) {
+            Matcher matcher = key.matcher(record);
+            Assert.assertTrue("Record with key: " + record, matcher.find());
+            keys.add(matcher.groupCount() > 1 ? matcher.group(1) + "/" + matcher.group(2) : matcher.group(1));
+        }
+        return keys;
+    }
+
+    private List<String> runNames(Iterable<Run> runs, int status) {
+        List<String> names = new ArrayList<>();
+        for (Run run : runs) {
+            if (status < 0 || run.getStatus() == status) {
+                names.add(run.getJob().getName() + "/" + run.getName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void checkJobPages() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (Job job : storage.getJobs()) {
+            expected.add(job.getName());
+        }
+        checkPages("/api/jobs", "pattern", null, expected, JOB_NAME);
+    }
+
+    @Test
+    public void checkRunPages() throws Exception {
+        List<Run> runs = new ArrayList<>();
+        for (Job job : storage.getJobs()) {
+            runs.addAll(storage.getJobRuns(job));
+        }
+        checkPages("/api/runs", "pattern", null, runNames(runs, -1), RUN_NAME);
+    }
+
+    @Test
+    public void checkPkgRunPages() throws Exception {
+        checkPages("/api/runs", "pkg", "big-1-1", runNames(storage.getPkgRuns(storage.getPkg("big-1-1")), -1), RUN_NAME);
+    }
+
+    @Test
+    public void checkPkgPages() throws Exception {
+        List<String> expected = new ArrayList<>();
+        for (Pkg pkg : storage.getPkgs()) {
+            expected.add(pkg.getStrId());
+        }
+        checkPages("/api/pkgs", "pattern", null, expected, PKG_ID);
+    }
+
+    @Test
+    public void checkFilteredPages() throws Exception {
+        List<Run> runs = new ArrayList<>();
+        for (Job job : storage.getJobs()) {
+            if (job.getName().startsWith("job0")) {
+                runs.addAll(storage.getJobRuns(job));
+            }
+        }
+        List<String> expected = runNames(runs, Run.FAILURE);
+        for (boolean ndjson : new boolean[] {false, true}) {
+            List<String> paged = readPages(new MockHttp.Request("/api/runs").param("pattern", "^job0").param("status", "failure"),
+                    ndjson, 100);
+            Assert.assertEquals("Filtered runs", expected, keys(paged, RUN_NAME));
+        }
+    }
+
+    @Test
+    public void checkBadRequests() throws Exception {
+        Assert.assertEquals("Bad pattern", HttpServletResponse.SC_BAD_REQUEST,
+                get(api, new MockHttp.Request("/api/runs").param("pattern", "job[")).status);
+        Assert.assertEquals("Unknown status", HttpServletResponse.SC_BAD_REQUEST,
+                get(api, new MockHttp.Request("/api/jobs").param("status", "SUCCESS,BROKEN")).status);
+        Assert.assertEquals("Unknown format", HttpServletResponse.SC_BAD_REQUEST,
+                get(api, new MockHttp.Request("/api/pkgs").param("format", "xml")).status);
+        Assert.assertEquals("Negative limit", HttpServletResponse.SC_BAD_REQUEST,
+                get(api, new MockHttp.Request("/api/pkgs").param("limit", "-1")).status);
+        Assert.assertEquals("Invalid since", HttpServletResponse.SC_BAD_REQUEST,
+                get(api, new MockHttp.Request("/api/runs").param("since", "yesterday")).status);
+        Assert.assertEquals("Unknown path", HttpServletResponse.SC_NOT_FOUND,
+                get(api, new MockHttp.Request("/api/builds")).status);
+    }
+
+    @Test
+    public void checkGzip() throws Exception {
+        MockHttp.Response plain = get(api, new MockHttp.Request("/api/pkgs"));
+        Assert.assertNull("Not compressed", plain.headers.get("Content-Encoding"));
+        MockHttp.Response compressed = get(api, new MockHttp.Request("/api/pkgs").header("Accept-Encoding", "deflate, gzip"));
+        Assert.assertEquals("Compressed", "gzip", compressed.headers.get("Content-Encoding"));
+        Assert.assertEquals("Varies by encoding", "Accept-Encoding", compressed.headers.get("Vary"));
+        Assert.assertTrue("Smaller", compressed.body.size() < plain.body.size());
+        Assert.assertEquals("Same content", plain.text(), compressed.text());
+    }
+
+    @Test
+    public void checkChanges() throws Exception {
+        EventStorage events = new EventStorage(new Storage());
+        ChangeLog changeLog = new ChangeLog(events.getGeneration(), 100);
+        events.addListener(changeLog);
+        JsonApi changesApi = new JsonApi(events, changeLog, "test");
+        String first = get(changesApi, new MockHttp.Request("/api/changes")).text();
+        Assert.assertEquals("Resync without watermark", "{\"watermark\":\"test-0\",\"resync\":true,\"changes\":[\n]}\n", first);
+
+        Job job = new Job("job1");
+        Pkg pkg = new Pkg("pkg-1-1");
+        Run run = new Run(job, "1");
+        run.setStatus(Run.SUCCESS);
+        events.beginUpdate();
+        try {
+            events.storeJob(job);
+            events.storePkg(pkg);
+            events.addPkgRun(pkg, run);
+            events.storeRun(run);
+        } finally {
+            events.endUpdate();
+        }
+        events.removeJob("job1");
+        /* change log is updated by other thread */
+        for (int i = 0; i < 1000 && changeLog.getGeneration() < 2; ++i) {
+            Thread.sleep(10);
+        }
+        String changes = get(changesApi, new MockHttp.Request("/api/changes").param("since", "test-0")).text();
+        Assert.assertEquals("Changes since watermark", "{\"watermark\":\"test-2\",\"resync\":false,\"changes\":[\n"
+                + "{\"type\":\"JOB_ADDED\",\"job\":\"job1\"},\n"
+                + "{\"type\":\"RUN_ADDED\",\"job\":\"job1\",\"run\":\"1\",\"status\":\"SUCCESS\"},\n"
+                + "{\"type\":\"PKG_RUN_ADDED\",\"job\":\"job1\",\"run\":\"1\",\"status\":\"SUCCESS\",\"pkg\":\"pkg-1-1\"},\n"
+                + "{\"type\":\"RUN_REMOVED\",\"job\":\"job1\",\"run\":\"1\",\"status\":\"SUCCESS\"},\n"
+                + "{\"type\":\"PKG_REMOVED\",\"job\":\"job1\",\"pkg\":\"pkg-1-1\"},\n"
+                + "{\"type\":\"JOB_REMOVED\",\"job\":\"job1\"}\n"
+                + "]}\n", changes);
+        String upToDate = get(changesApi, new MockHttp.Request("/api/changes").param("since", "test-2")).text();
+        Assert.assertEquals("No changes", "{\"watermark\":\"test-2\",\"resync\":false,\"changes\":[\n]}\n", upToDate);
+        String otherInstance = get(changesApi, new MockHttp.Request("/api/changes").param("since", "other-1")).text();
+        Assert.assertTrue("Resync for other instance", otherInstance.contains("\"resync\":true"));
+        events.close();
+    }
+
+}
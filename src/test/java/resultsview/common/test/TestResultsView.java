@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.common.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import resultsview.servlet.PageCache;
+import resultsview.servlet.ResultsView;
+
+public class TestResultsView {
+
+    private static final Pattern ETAG = Pattern.compile("\"([0-9a-f]+)-([0-9]+)\"");
+
+    private Path tmpDir;
+    private Path jenkinsJobs;
+    private final TestJenkinPoller jenkins = new TestJenkinPoller();
+    private ResultsView servlet;
+    private PageCache pageCache;
+
+    @Before
+    public void before() throws Exception {
+        tmpDir = Files.createTempDirectory("resultview");
+        jenkinsJobs = tmpDir.resolve("jenkinsJobs");
+        jenkins.prepareFakeJenkins(jenkinsJobs);
+        /* no full poll after the initial one, changes come from watcher */
+        final String config = "jenkins.job.dir=" + jenkinsJobs.toString().replace("\\", "\\\\") + "\n"
+                + "jenkins.poll.interval=3600\n"
+                + "jenkins.poll.watch=true\n";
+        final ServletContext context = (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ServletContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getResourceAsStream") && "/WEB-INF/config.properties".equals(args[0])) {
+                    return new ByteArrayInputStream(config.getBytes(StandardCharsets.ISO_8859_1));
+                }
+                return MockHttp.defaultValue(method.getReturnType());
+            }
+        });
+        ServletConfig servletConfig = (ServletConfig) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ServletConfig.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getServletContext":
+                        return context;
+                    case "getServletName":
+                        return "ResultsView";
+                    default:
+                        return MockHttp.defaultValue(method.getReturnType());
+                }
+            }
+        });
+        servlet = new ResultsView();
+        servlet.init(servletConfig);
+        Field field = ResultsView.class.getDeclaredField("pageCache");
+        field.setAccessible(true);
+        pageCache = (PageCache) field.get(servlet);
+        /* pages are cached only after initial poll */
+        for (int i = 0; i < 1000 && get(new MockHttp.Request("/jobs")).headers.get("ETag") == null; ++i) {
+            Thread.sleep(10);
+        }
+    }
+
+    @After
+    public void after() throws IOException {
+        servlet.destroy();
+        TestJenkinPoller.recursiveDelete(tmpDir);
+    }
+
+    private MockHttp.Response get(MockHttp.Request request) throws Exception {
+        MockHttp.Response response = new MockHttp.Response();
+        servlet.service(request.proxy(), response.proxy());
+        return response;
+    }
+
+    /* waits for poller to store change on disk */
+    private String waitForNewEtag(String etag) throws Exception {
+        for (int i = 0; i < 1000; ++i) {
+            String newEtag = get(new MockHttp.Request("/jobs").header("If-None-Match", etag)).headers.get("ETag");
+            if (!etag.equals(newEtag)) {
+                return newEtag;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Generation not changed");
+    }
+
+    @Test
+    public void checkEtag() throws Exception {
+        MockHttp.Response response = get(new MockHttp.Request("/jobs"));
+        Assert.assertEquals("Success", HttpServletResponse.SC_OK, response.status);
+        String etag = response.headers.get("ETag");
+        Matcher matcher = ETAG.matcher(etag);
+        Assert.assertTrue("ETag of instance and generation: " + etag, matcher.matches());
+        Assert.assertEquals("Revalidated", "no-cache", response.headers.get("Cache-Control"));
+        Assert.assertEquals("Same ETag for other page", etag, get(new MockHttp.Request("/pkgs")).headers.get("ETag"));
+
+        String[] matching = {etag, "W/" + etag, "*", "\"other\", " + etag, "\"other\"," + "W/" + etag + " , \"other2\""};
+        for (String ifNoneMatch : matching) {
+            MockHttp.Response notModified = get(new MockHttp.Request("/jobs").header("If-None-Match", ifNoneMatch));
+            Assert.assertEquals("Not modified: " + ifNoneMatch, HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+            Assert.assertEquals("No body: " + ifNoneMatch, 0, notModified.body.size());
+            Assert.assertEquals("ETag with 304", etag, notModified.headers.get("ETag"));
+        }
+        String otherGeneration = "\"" + matcher.group(1) + "-" + (Long.parseLong(matcher.group(2)) + 1) + "\"";
+        String[] notMatching = {"\"other\"", otherGeneration, "\"0-" + matcher.group(2) + "\"", etag.substring(1)};
+        for (String ifNoneMatch : notMatching) {
+            MockHttp.Response modified = get(new MockHttp.Request("/jobs").header("If-None-Match", ifNoneMatch));
+            Assert.assertEquals("Modified: " + ifNoneMatch, HttpServletResponse.SC_OK, modified.status);
+            Assert.assertArrayEquals("Page: " + ifNoneMatch, response.body.toByteArray(), modified.body.toByteArray());
+        }
+    }
+
+    @Test
+    public void checkPageCache() throws Exception {
+        MockHttp.Response first = get(new MockHttp.Request("/jobs").param("pattern", "job"));
+        long misses = pageCache.getMisses();
+        long hits = pageCache.getHits();
+        MockHttp.Response second = get(new MockHttp.Request("/jobs").param("pattern", "job"));
+        Assert.assertEquals("Cache hit", hits + 1, pageCache.getHits());
+        Assert.assertEquals("No render", misses, pageCache.getMisses());
+        Assert.assertArrayEquals("Same page", first.body.toByteArray(), second.body.toByteArray());
+        Assert.assertEquals("Content length", Integer.toString(second.body.size()), second.headers.get("Content-Length"));
+        Assert.assertFalse("No new job yet", second.text().contains("job5"));
+
+        String etag = first.headers.get("ETag");
+        jenkins.createJob(jenkinsJobs, "job5");
+        jenkins.createBuild(jenkinsJobs, "job5", 1, "pkg-1-5", "SUCCESS");
+        String newEtag = waitForNewEtag(etag);
+        Assert.assertEquals("Same instance", etag.substring(0, etag.indexOf('-')), newEtag.substring(0, newEtag.indexOf('-')));
+        /* generation may be bumped again, until poller stores the whole job */
+        for (int i = 0; i < 1000; ++i) {
+            MockHttp.Response third = get(new MockHttp.Request("/jobs").param("pattern", "job"));
+            if (third.text().contains("job5")) {
+                Assert.assertTrue("Rendered again", pageCache.getMisses() > misses);
+                Assert.assertNotEquals("New ETag", etag, third.headers.get("ETag"));
+                return;
+            }
+            Thread.sleep(20);
+        }
+        Assert.fail("Page not rendered again after change");
+    }
+
+    @Test
+    public void checkPageKey() throws Exception {
+        String jobs = get(new MockHttp.Request("/jobs")).text();
+        String job3 = get(new MockHttp.Request("/jobs").param("pattern", "job3")).text();
+        String job4 = get(new MockHttp.Request("/jobs").param("pattern", "job4")).text();
+        String pkgs = get(new MockHttp.Request("/pkgs")).text();
+        String runs = get(new MockHttp.Request("/runs")).text();
+        String latest = get(new MockHttp.Request("/pkgs").param("latest", "on")).text();
+        String limited = get(new MockHttp.Request("/runs").param("limit", "1")).text();
+        /* same requests are served from cache */
+        long hits = pageCache.getHits();
+        Assert.assertEquals("Jobs", jobs, get(new MockHttp.Request("/jobs")).text());
+        Assert.assertEquals("Pattern job3", job3, get(new MockHttp.Request("/jobs").param("pattern", "job3")).text());
+        Assert.assertEquals("Pattern job4", job4, get(new MockHttp.Request("/jobs").param("pattern", "job4")).text());
+        Assert.assertEquals("Pkgs", pkgs, get(new MockHttp.Request("/pkgs")).text());
+        Assert.assertEquals("Runs", runs, get(new MockHttp.Request("/runs")).text());
+        Assert.assertEquals("Latest", latest, get(new MockHttp.Request("/pkgs").param("latest", "on")).text());
+        Assert.assertEquals("Limited", limited, get(new MockHttp.Request("/runs").param("limit", "1")).text());
+        Assert.assertEquals("Cache hits", hits + 7, pageCache.getHits());
+
+        Assert.assertTrue("All jobs", jobs.contains("job3") && jobs.contains("job4"));
+        Assert.assertTrue("Only job3", job3.contains("job3") && !job3.contains("job4"));
+        Assert.assertTrue("Only job4", job4.contains("job4") && !job4.contains("job3"));
+        Assert.assertNotEquals("Pages differ", pkgs, runs);
+        Assert.assertNotEquals("Latest differs", pkgs, latest);
+        Assert.assertNotEquals("Limit differs", runs, limited);
+        /* unknown parameters do not affect page */
+        Assert.assertEquals("Ignored parameter", jobs, get(new MockHttp.Request("/jobs").param("foo", "bar")).text());
+        Assert.assertEquals("Cache hit for ignored parameter", hits + 8, pageCache.getHits());
+    }
+
+}
@@ -23,9 +23,24 @@
  */
 package resultsview.common.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.junit.Assert;
 import org.junit.Test;
 import resultsview.common.VersionUtil;
+import resultsview.servlet.HtmlWriter;
+import resultsview.servlet.PageCache;
 
 public class TestUtil {
 
@@ -113,4 +128,286 @@ public class TestUtil {
         Assert.assertTrue(cmp == 0);
     }
 
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+");
+
+    /* previous regex based implementation, used as reference */
+    static int referenceVersionCompare(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        int curIndex1 = 0;
+        int curIndex2 = 0;
+        Matcher m1 = NUMBER_PATTERN.matcher(s1);
+        Matcher m2 = NUMBER_PATTERN.matcher(s2);
+        for (;;) {
+            boolean found1 = m1.find();
+            boolean found2 = m2.find();
+            int digitIndex1 = found1 ? m1.start() : s1.length();
+            int digitIndex2 = found2 ? m2.start() : s2.length();
+            int digitDistance1 = digitIndex1 - curIndex1;
+            int digitDistance2 = digitIndex2 - curIndex2;
+            if (digitDistance1 != digitDistance2) {
+                return s1.substring(curIndex1).compareTo(s2.substring(curIndex2));
+            }
+            int cmp = s1.substring(curIndex1, curIndex1 + digitDistance1)
+                    .compareTo(s2.substring(curIndex2, curIndex2 + digitDistance2));
+            if (cmp != 0) {
+                return cmp;
+            }
+            if (!found1) {
+                if (!found2) {
+                    return 0;
+                }
+                return -1;
+            }
+            if (!found2) {
+                return 1;
+            }
+            int end1 = m1.end();
+            int end2 = m2.end();
+            int numLength1 = end1 - digitIndex1;
+            int numLength2 = end2 - digitIndex2;
+            int biggerNumLength = Math.max(numLength1, numLength2);
+            int missingDigits1 = biggerNumLength - numLength1;
+            int missingDigits2 = biggerNumLength - numLength2;
+            for (int i = 0; i < biggerNumLength; ++i) {
+                char digit1 = i >= missingDigits1 ? s1.charAt(digitIndex1 + i - missingDigits1) : '0';
+                char digit2 = i >= missingDigits2 ? s2.charAt(digitIndex2 + i - missingDigits2) : '0';
+                if (digit2 != digit1) {
+                    return digit1 > digit2 ? 1 : -1;
+                }
+            }
+            curIndex1 = end1;
+            curIndex2 = end2;
+        }
+    }
+
+    static String randomVersion(Random random) {
+        /* few chars, so that strings often share prefixes */
+        final String chars = "0001239aab-.~ ";
+        int length = random.nextInt(12);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testVersionCompareMatchesReference() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; ++i) {
+            String s1 = randomVersion(random);
+            String s2 = random.nextInt(4) == 0 ? s1 + randomVersion(random) : randomVersion(random);
+            int expected = referenceVersionCompare(s1, s2);
+            Assert.assertEquals("Compare of \"" + s1 + "\" and \"" + s2 + "\"",
+                    expected, VersionUtil.versionCompare(s1, s2));
+            int keyCmp = VersionUtil.versionSortKey(s1).compareTo(VersionUtil.versionSortKey(s2));
+            Assert.assertEquals("Sort keys of \"" + s1 + "\" and \"" + s2 + "\"",
+                    Integer.signum(expected), Integer.signum(keyCmp));
+        }
+    }
+
+    @Test
+    public void testPageCache() {
+        PageCache cache = new PageCache(100);
+        cache.put("/jobs", 1, new byte[40]);
+        cache.put("/pkgs", 1, new byte[40]);
+        Assert.assertNotNull("Cached page", cache.get("/jobs", 1));
+        Assert.assertNull("Page of older generation", cache.get("/jobs", 2));
+        /* /pkgs is least recently used */
+        cache.put("/runs", 1, new byte[40]);
+        Assert.assertNull("Evicted page", cache.get("/pkgs", 1));
+        Assert.assertNotNull("Cached page", cache.get("/jobs", 1));
+        Assert.assertEquals("Correct size", 80, cache.getSize());
+        cache.put("/jobs", 2, new byte[10]);
+        cache.put("/jobs", 1, new byte[20]);
+        Assert.assertEquals("Newer page kept", 10, cache.get("/jobs", 2).length);
+        cache.put("/big", 2, new byte[101]);
+        Assert.assertNull("Page over maximum size not cached", cache.get("/big", 2));
+        Assert.assertEquals("Correct size", 50, cache.getSize());
+        Assert.assertEquals("Correct hits", 3, cache.getHits());
+        Assert.assertEquals("Correct misses", 3, cache.getMisses());
+    }
+
+    static String referenceHtmlEscape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;").replace("\'", "&apos;");
+    }
+
+    static String randomString(Random random, int length) {
+        String chars = "aZ09 .-*_&<>\"'/%+=?\u00e9\u0161\u20ac\ud83d\ude00\ud800";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testHtmlWriter() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            String s = randomString(random, random.nextInt(40));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            /* small buffer to test flushing in the middle of char */
+            try (HtmlWriter out = new HtmlWriter(bytes, 16)) {
+                out.text(s).raw("|").url(s).raw("|").raw(HtmlWriter.bytes(s));
+            }
+            String expected = referenceHtmlEscape(s) + "|" + URLEncoder.encode(s, "UTF-8") + "|" + s;
+            Assert.assertArrayEquals(s, expected.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+        }
+    }
+
+    private static String referenceJsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    @Test
+    public void testJsonString() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            String s = randomString(random, random.nextInt(40));
+            if (random.nextBoolean()) {
+                s += (char) random.nextInt(0x20) + "\\\"";
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (HtmlWriter out = new HtmlWriter(bytes, 16)) {
+                out.jsonString(s);
+            }
+            Assert.assertArrayEquals(s, referenceJsonString(s).getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+        }
+    }
+
+    @Test
+    public void testParseNumber() {
+        Assert.assertEquals(0, VersionUtil.parseNumber("0"));
+        Assert.assertEquals(1234, VersionUtil.parseNumber("1234"));
+        Assert.assertEquals(12, VersionUtil.parseNumber("012"));
+        Assert.assertEquals(-1, VersionUtil.parseNumber(""));
+        Assert.assertEquals(-1, VersionUtil.parseNumber("12a"));
+        Assert.assertEquals(-1, VersionUtil.parseNumber("1234567890123456789"));
+    }
+
+    //@Test
+    public void versionCompareBenchmark() {
+        Random random = new Random(42);
+        List<String> nvrs = new ArrayList<>();
+        for (int i = 0; i < 100_000; ++i) {
+            nvrs.add("java-" + random.nextInt(30) + "-openjdk-" + random.nextInt(30) + ".0." + random.nextInt(20)
+                    + "." + random.nextInt(10) + "-" + random.nextInt(5) + ".el" + random.nextInt(10));
+        }
+        for (int round = 0; round < 5; ++round) {
+            List<String> list = new ArrayList<>(nvrs);
+            long start = System.nanoTime();
+            Collections.sort(list, new Comparator<String>() {
+                @Override
+                public int compare(String s1, String s2) {
+                    return referenceVersionCompare(s1, s2);
+                }
+            });
+            long referenceTime = System.nanoTime() - start;
+            list = new ArrayList<>(nvrs);
+            start = System.nanoTime();
+            Collections.sort(list, new Comparator<String>() {
+                @Override
+                public int compare(String s1, String s2) {
+                    return VersionUtil.versionCompare(s1, s2);
+                }
+            });
+            long compareTime = System.nanoTime() - start;
+            list = new ArrayList<>();
+            start = System.nanoTime();
+            for (String nvr : nvrs) {
+                list.add(VersionUtil.versionSortKey(nvr));
+            }
+            Collections.sort(list);
+            long keyTime = System.nanoTime() - start;
+            System.out.println("sorting 100k nvrs: regex compare: " + (referenceTime / 1_000_000) + " ms, "
+                    + "single pass compare: " + (compareTime / 1_000_000) + " ms, "
+                    + "sort keys (including creation): " + (keyTime / 1_000_000) + " ms");
+        }
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /* rows as printed by pkgs and runs pages */
+    //@Test
+    public void htmlWriterBenchmark() throws Exception {
+        for (int rows : new int[]{1_000, 10_000, 100_000}) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < rows; ++i) {
+                names.add("java-" + (i % 30) + "-openjdk-" + (i % 17) + ".0." + i + "-1.el8");
+            }
+            for (int round = 0; round < 5; ++round) {
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                StringWriter sw = new StringWriter();
+                try (PrintWriter out = new PrintWriter(sw)) {
+                    for (String name : names) {
+                        out.println("<tr>");
+                        out.println("<td>");
+                        out.println(referenceHtmlEscape(name));
+                        out.println("</td>");
+                        out.println("<td>");
+                        out.println("<a href=\"runs?pkg=" + URLEncoder.encode(name, "UTF-8") + "\">");
+                        out.println(name.length());
+                        out.println("</a>");
+                        out.println("</td>");
+                        out.println("</tr>");
+                    }
+                }
+                byte[] page = sw.toString().getBytes(StandardCharsets.UTF_8);
+                long printTime = System.nanoTime() - start;
+                long printAllocated = allocatedBytes() - allocated;
+                allocated = allocatedBytes();
+                start = System.nanoTime();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(page.length);
+                byte[] rowStart = HtmlWriter.bytes("<tr><td>");
+                byte[] rowEnd = HtmlWriter.bytes("</a></td></tr>\n");
+                try (HtmlWriter out = new HtmlWriter(bytes)) {
+                    for (String name : names) {
+                        out.raw(rowStart).text(name).raw("</td><td><a href=\"runs?pkg=").url(name).raw("\">")
+                                .number(name.length()).raw(rowEnd);
+                    }
+                }
+                long writerTime = System.nanoTime() - start;
+                long writerAllocated = allocatedBytes() - allocated;
+                System.out.println(rows + " rows: println: " + (printTime / 1_000) + " us, "
+                        + (printAllocated / 1024) + " KB allocated, html writer: " + (writerTime / 1_000) + " us, "
+                        + (writerAllocated / 1024) + " KB allocated (including " + (bytes.size() / 1024) + " KB page)");
+            }
+        }
+    }
+
 }
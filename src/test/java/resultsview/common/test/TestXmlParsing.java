@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2022 zzambers.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package resultsview.common.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import resultsview.xml.BuildXmlHandler;
+import resultsview.xml.SAXParserPool;
+
+public class TestXmlParsing {
+
+    Path tmpDir;
+
+    @Before
+    public void before() throws IOException {
+        tmpDir = Files.createTempDirectory("resultview");
+    }
+
+    @After
+    public void after() throws IOException {
+        TestJenkinPoller.recursiveDelete(tmpDir);
+    }
+
+    static Path writeBuildXml(Path dir, String name, int actions) throws IOException {
+        return writeBuildXml(dir, name, actions, 0);
+    }
+
+    /* element order as in build.xml written by Jenkins: big actions element
+       first, then the fields read by BuildXmlHandler, then the rest */
+    static Path writeBuildXml(Path dir, String name, int actions, int culprits) throws IOException {
+        Path buildxml = dir.resolve(name);
+        List<String> lines = new ArrayList<>();
+        lines.add("<?xml version='1.1' encoding='UTF-8'?>");
+        lines.add("<build>");
+        lines.add("  <actions>");
+        for (int i = 0; i < actions; ++i) {
+            lines.add("    <hudson.model.ParametersAction>");
+            lines.add("      <safeParameters class=\"sorted-set\"/>");
+            lines.add("      <parameters>");
+            lines.add("        <hudson.model.StringParameterValue>");
+            lines.add("          <name>PARAM_" + i + "</name>");
+            lines.add("          <value>some value of parameter " + i + "</value>");
+            lines.add("        </hudson.model.StringParameterValue>");
+            lines.add("      </parameters>");
+            lines.add("    </hudson.model.ParametersAction>");
+        }
+        lines.add("    <hudson.plugins.scm.koji.KojiRevisionState plugin=\"jenkins-scm-koji-plugin@2.0-SNAPSHOT\">");
+        lines.add("      <build>");
+        lines.add("        <name>java-17-openjdk</name>");
+        lines.add("        <version>17.0.9.0.9</version>");
+        lines.add("        <release>1.el8</release>");
+        lines.add("        <nvr>java-17-openjdk-17.0.9.0.9-1.el8</nvr>");
+        lines.add("      </build>");
+        lines.add("    </hudson.plugins.scm.koji.KojiRevisionState>");
+        lines.add("  </actions>");
+        lines.add("  <queueId>12345</queueId>");
+        lines.add("  <timestamp>1697000000000</timestamp>");
+        lines.add("  <startTime>1697000000100</startTime>");
+        lines.add("  <result>SUCCESS</result>");
+        lines.add("  <duration>3600000</duration>");
+        lines.add("  <charset>UTF-8</charset>");
+        lines.add("  <keepLog>false</keepLog>");
+        lines.add("  <builtOn>worker-1</builtOn>");
+        lines.add("  <workspace>/home/jenkins/workspace/java-17-openjdk-tck</workspace>");
+        lines.add("  <hudsonVersion>2.414.2</hudsonVersion>");
+        lines.add("  <scm class=\"hudson.scm.NullChangeLogParser\"/>");
+        lines.add("  <culprits class=\"java.util.Collections$UnmodifiableSortedSet\">");
+        for (int i = 0; i < culprits; ++i) {
+            lines.add("    <string>developer" + i + "@example.com</string>");
+        }
+        lines.add("  </culprits>");
+        lines.add("</build>");
+        Files.write(buildxml, lines, Charset.forName("UTF-8"));
+        return buildxml;
+    }
+
+    @Test
+    public void checkBuildXmlParsed() throws Exception {
+        Path buildXml = writeBuildXml(tmpDir, "build.xml", 3);
+        for (int i = 0; i < 3; ++i) {
+            /* parser is reused */
+            BuildXmlHandler handler = new BuildXmlHandler();
+            handler.parse(buildXml);
+            Assert.assertEquals("Correct result", "SUCCESS", handler.getResult());
+            Assert.assertEquals("Correct name", "java-17-openjdk", handler.getPkgName());
+            Assert.assertEquals("Correct version", "17.0.9.0.9", handler.getPkgVersion());
+            Assert.assertEquals("Correct release", "1.el8", handler.getPkgRelease());
+            Assert.assertEquals("Correct duration", "3600000", handler.getDuration());
+        }
+    }
+
+    @Test
+    public void checkExternalEntitiesIgnored() throws Exception {
+        Path secret = tmpDir.resolve("secret.txt");
+        Files.write(secret, "SECRET".getBytes("UTF-8"));
+        String xml = "<?xml version='1.0' encoding='UTF-8'?>"
+                + "<!DOCTYPE build [<!ENTITY ext SYSTEM \"" + secret.toUri() + "\">]>"
+                + "<build><result>&ext;</result></build>";
+        BuildXmlHandler handler = new BuildXmlHandler();
+        try {
+            handler.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        } catch (Exception e) {
+            /* rejecting document is fine too */
+        }
+        String result = handler.getResult();
+        Assert.assertTrue("External entity not loaded", result == null || !result.contains("SECRET"));
+    }
+
+    @Test
+    public void checkSizeLimit() throws Exception {
+        Path buildXml = writeBuildXml(tmpDir, "build.xml", 1000);
+        SAXParserPool.setLimits(1024, SAXParserPool.DEFAULT_MAX_TIME);
+        try {
+            new BuildXmlHandler().parse(buildXml);
+            Assert.fail("Parse should fail on size limit");
+        } catch (IOException e) {
+            /* expected */
+        } finally {
+            SAXParserPool.setLimits(SAXParserPool.DEFAULT_MAX_BYTES, SAXParserPool.DEFAULT_MAX_TIME);
+        }
+        BuildXmlHandler handler = new BuildXmlHandler();
+        handler.parse(buildXml);
+        Assert.assertEquals("Correct result", "SUCCESS", handler.getResult());
+    }
+
+    @Test
+    public void checkStopWhenComplete() throws Exception {
+        /* typical file, actions have to be read anyway, only the tail is skipped */
+        checkStopWhenComplete(writeBuildXml(tmpDir, "build.xml", 200, 20), false);
+        /* long tail (e.g. huge culprits list) is not read at all */
+        checkStopWhenComplete(writeBuildXml(tmpDir, "build-tail.xml", 10, 100_000), true);
+    }
+
+    private void checkStopWhenComplete(Path buildXml, boolean bigTail) throws Exception {
+        long size = Files.size(buildXml);
+        for (int i = 0; i < 2; ++i) {
+            CountingInputStream is = new CountingInputStream(Files.newInputStream(buildXml));
+            BuildXmlHandler handler = new BuildXmlHandler();
+            handler.setStopWhenComplete(true);
+            try {
+                handler.parse(is);
+            } finally {
+                is.close();
+            }
+            Assert.assertTrue("Not more than file read", is.count <= size);
+            if (bigTail) {
+                Assert.assertTrue("Only part of file read", is.count < size / 10);
+            }
+            Assert.assertEquals("Correct result", "SUCCESS", handler.getResult());
+            Assert.assertEquals("Correct name", "java-17-openjdk", handler.getPkgName());
+            Assert.assertEquals("Correct version", "17.0.9.0.9", handler.getPkgVersion());
+            Assert.assertEquals("Correct release", "1.el8", handler.getPkgRelease());
+            Assert.assertEquals("Correct timestamp", "1697000000000", handler.getTimestamp());
+            Assert.assertEquals("Correct duration", "3600000", handler.getDuration());
+            Assert.assertNull("builtOn is after duration, not read", handler.getBuiltOn());
+        }
+        /* parser still usable for full parse */
+        BuildXmlHandler handler = new BuildXmlHandler();
+        handler.parse(buildXml);
+        Assert.assertEquals("Correct builtOn", "worker-1", handler.getBuiltOn());
+    }
+
+    /* corpus with realistic proportions: actions dominate, small tail.
+       Practically whole files are still read (40.78 MB of 40.78 MB, the tail
+       fits into read buffer) and parse time is about the same (~390 ms vs
+       ~380-450 ms), stopping pays off only for files with long tails
+       (culprits, change sets of matrix builds). */
+    //@Test
+    public void stopWhenCompleteBenchmark() throws Exception {
+        List<Path> corpus = new ArrayList<>();
+        long totalSize = 0;
+        for (int i = 0; i < 1000; ++i) {
+            Path buildXml = writeBuildXml(tmpDir, "build" + i + ".xml", 20 + i % 200, i % 30);
+            corpus.add(buildXml);
+            totalSize += Files.size(buildXml);
+        }
+        for (int round = 0; round < 5; ++round) {
+            for (boolean stop : new boolean[]{false, true}) {
+                long read = 0;
+                long start = System.nanoTime();
+                for (Path buildXml : corpus) {
+                    try (CountingInputStream is = new CountingInputStream(Files.newInputStream(buildXml))) {
+                        BuildXmlHandler handler = new BuildXmlHandler();
+                        handler.setStopWhenComplete(stop);
+                        handler.parse(is);
+                        read += is.count;
+                    }
+                }
+                long time = System.nanoTime() - start;
+                System.out.println((stop ? "stop when complete: " : "full parse: ")
+                        + (time / 1_000_000) + " ms, " + read + " of " + totalSize + " bytes read");
+            }
+        }
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+    }
+
+    //@Test
+    public void parseBenchmark() throws Exception {
+        List<Path> corpus = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            corpus.add(writeBuildXml(tmpDir, "build" + i + ".xml", i % 20));
+        }
+        for (int round = 0; round < 5; ++round) {
+            long start = System.nanoTime();
+            for (Path buildXml : corpus) {
+                SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+                parser.parse(buildXml.toFile(), new BuildXmlHandler());
+            }
+            long newParserTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Path buildXml : corpus) {
+                new BuildXmlHandler().parse(buildXml);
+            }
+            long pooledTime = System.nanoTime() - start;
+            System.out.println("new parser: " + (corpus.size() * 1_000_000_000L / newParserTime) + " parses/s, "
+                    + "pooled parser: " + (corpus.size() * 1_000_000_000L / pooledTime) + " parses/s");
+        }
+    }
+
+}